@@ -0,0 +1,147 @@
+package logiclda;
+
+
+/**
+ * Walker alias table for O(1) sampling from a fixed discrete distribution
+ * (built in O(n) with Vose's method)
+ *
+ * Tables can be rebuilt in place to avoid re-allocating storage.
+ */
+public class AliasTable {
+
+	private double[] prob;
+	private int[] alias;
+	private int n;
+	private double total;
+
+	// Work stacks for construction
+	private int[] small;
+	private int[] large;
+
+	/**
+	 * Empty table with room for up to capacity outcomes
+	 *
+	 * @param capacity
+	 */
+	public AliasTable(int capacity)
+	{
+		prob = new double[capacity];
+		alias = new int[capacity];
+		small = new int[capacity];
+		large = new int[capacity];
+		n = 0;
+		total = 0;
+	}
+
+	/**
+	 * Table for (un-normalized) weights
+	 *
+	 * @param weights
+	 */
+	public AliasTable(double[] weights)
+	{
+		this(weights.length);
+		build(weights, weights.length);
+	}
+
+	/**
+	 * (Re-)build table from the first n (un-normalized) weights
+	 *
+	 * @param weights
+	 * @param n
+	 */
+	public void build(double[] weights, int n)
+	{
+		if(n > prob.length)
+		{
+			prob = new double[n];
+			alias = new int[n];
+		}
+		if(small == null || n > small.length)
+		{
+			small = new int[prob.length];
+			large = new int[prob.length];
+		}
+		this.n = n;
+
+		total = 0;
+		for(int k = 0; k < n; k++)
+			total += weights[k];
+		assert(n == 0 || total > 0);
+
+		// Scale so that average entry is 1, split into under/over-full
+		int ns = 0;
+		int nl = 0;
+		for(int k = 0; k < n; k++)
+		{
+			prob[k] = weights[k] * n / total;
+			alias[k] = k;
+			if(prob[k] < 1)
+				small[ns++] = k;
+			else
+				large[nl++] = k;
+		}
+
+		// Top up each under-full entry from an over-full one
+		while(ns > 0 && nl > 0)
+		{
+			int s = small[--ns];
+			int l = large[--nl];
+			alias[s] = l;
+			prob[l] = (prob[l] + prob[s]) - 1;
+			if(prob[l] < 1)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+
+		// Whatever remains is full (up to rounding error)
+		while(nl > 0)
+			prob[large[--nl]] = 1;
+		while(ns > 0)
+			prob[small[--ns]] = 1;
+	}
+
+	/**
+	 * Free the construction work stacks (eg, for many small tables 
+	 * which are built once), they are re-allocated by the next build
+	 */
+	public void trim()
+	{
+		small = null;
+		large = null;
+	}
+
+	/**
+	 * Draw an outcome index in [0, size())
+	 *
+	 * @param rng
+	 * @return
+	 */
+	public int sample(RandomStream rng)
+	{
+		double u = rng.nextDouble() * n;
+		int k = (int) u;
+		if(k >= n)
+			k = n - 1;
+		return (u - k < prob[k]) ? k : alias[k];
+	}
+
+	/**
+	 * Number of outcomes
+	 * @return
+	 */
+	public int size()
+	{
+		return n;
+	}
+
+	/**
+	 * Sum of the weights this table was built from
+	 * @return
+	 */
+	public double total()
+	{
+		return total;
+	}
+}
@@ -0,0 +1,313 @@
+package logiclda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * Topic-word Dirichlet hyperparameter beta, stored as a base value per
+ * topic plus sparse (topic, word) overrides, instead of a dense TxW matrix
+ *
+ * %s.beta may hold a single value (scalar beta), one value per line
+ * (per-topic beta) or a full TxW matrix (as written by MakeParams.py).
+ * Constant matrix rows are detected and stored as a single value,
+ * other entries become overrides.  Optional %s.betaover adds overrides
+ * as "topic word value" lines.
+ */
+public class BetaPrior {
+
+	private int T;
+	private int W;
+
+	// Base value for each topic
+	private double[] topicbeta;
+
+	// Overrides for each word: topics (ascending) and values
+	// (null if word w has none)
+	private int[][] overtopics;
+	private double[][] overvals;
+	private int[] numover;
+	private int totalover;
+
+	// Sum over words for each topic
+	private double[] sums;
+
+	/**
+	 * Per-topic beta (no overrides yet)
+	 *
+	 * @param topicbeta Value for each topic
+	 * @param W Vocabulary size
+	 */
+	public BetaPrior(double[] topicbeta, int W)
+	{
+		this.T = topicbeta.length;
+		this.W = W;
+		this.topicbeta = topicbeta.clone();
+		this.overtopics = new int[W][];
+		this.overvals = new double[W][];
+		this.numover = new int[W];
+		this.totalover = 0;
+		this.sums = new double[T];
+		for(int t = 0; t < T; t++)
+			sums[t] = W * topicbeta[t];
+	}
+
+	/**
+	 * Load beta from %s.beta (and %s.betaover, if present)
+	 *
+	 * @param basefn
+	 * @param T Number of topics
+	 * @return
+	 */
+	public static BetaPrior fromFile(String basefn, int T)
+	{
+		String betafn = String.format("%s.beta", basefn);
+		try
+		{
+			BetaPrior bp = null;
+			BufferedReader in = new BufferedReader(new FileReader(betafn));
+			String curLine = in.readLine();
+			int t = 0;
+			int firstsize = 0;
+			while(curLine != null)
+			{
+				Vector<Double> row = FileUtil.parseDoubleLine(curLine);
+				if(row.size() > 0)
+				{
+					if(t >= T)
+						badBeta(betafn, T);
+					if(bp == null)
+					{
+						// First row determines the format
+						double[] base = new double[T];
+						Arrays.fill(base, row.get(0));
+						int W = (row.size() > 1) ? row.size() :
+							FileUtil.readLines(String.format("%s.vocab",
+									basefn)).size();
+						bp = new BetaPrior(base, W);
+						firstsize = row.size();
+					}
+					bp.setRow(t, row, betafn);
+					t++;
+				}
+				curLine = in.readLine();
+			}
+			in.close();
+			// Need a row per topic (or a single value, shared by all topics)
+			if(bp == null || (t != T && !(t == 1 && firstsize == 1)))
+				badBeta(betafn, T);
+
+			File overfn = new File(String.format("%s.betaover", basefn));
+			if(overfn.exists())
+				bp.readOverrides(overfn.getPath());
+			return bp;
+		}
+		catch(IOException ioe)
+		{
+			System.out.println(String.format("Bad file(name): %s\n",
+					ioe.toString()));
+			System.exit(1);
+			return null;
+		}
+	}
+
+	private static void badBeta(String betafn, int T)
+	{
+		System.out.println(String.format("%s must hold 1 value, 1 value " +
+				"per topic or 1 row per topic (%d topics)", betafn, T));
+		System.exit(1);
+	}
+
+	/**
+	 * Set topic t from one line of %s.beta
+	 * (most common value as base, other values as overrides)
+	 */
+	private void setRow(int t, Vector<Double> row, String betafn)
+	{
+		if(row.size() != 1 && row.size() != W)
+		{
+			System.out.println(String.format("%s: topic %d has %d values " +
+					"(expected 1 or %d)", betafn, t, row.size(), W));
+			System.exit(1);
+		}
+		double[] vals = MiscUtil.doubleListUnbox(row);
+		double[] sorted = vals.clone();
+		Arrays.sort(sorted);
+		double base = sorted[0];
+		int bestrun = 0;
+		for(int k = 0, run = 0; k < sorted.length; k++)
+		{
+			run = (k > 0 && sorted[k] == sorted[k - 1]) ? run + 1 : 1;
+			if(run > bestrun)
+			{
+				bestrun = run;
+				base = sorted[k];
+			}
+		}
+
+		sums[t] += W * (base - topicbeta[t]);
+		topicbeta[t] = base;
+		if(vals.length > 1)
+			for(int w = 0; w < W; w++)
+				if(vals[w] != base)
+					override(t, w, vals[w]);
+	}
+
+	/**
+	 * Read "topic word value" override lines
+	 */
+	private void readOverrides(String filename) throws IOException
+	{
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		String curLine = in.readLine();
+		while(curLine != null)
+		{
+			String[] toks = curLine.trim().split("\\s+");
+			if(toks.length == 3)
+			{
+				int t = Integer.parseInt(toks[0]);
+				int w = Integer.parseInt(toks[1]);
+				if(t < 0 || t >= T || w < 0 || w >= W)
+				{
+					System.out.println(String.format("%s: bad override %s",
+							filename, curLine));
+					System.exit(1);
+				}
+				override(t, w, Double.parseDouble(toks[2]));
+			}
+			else if(toks[0].length() > 0)
+			{
+				System.out.println(String.format("%s: bad override %s",
+						filename, curLine));
+				System.exit(1);
+			}
+			curLine = in.readLine();
+		}
+		in.close();
+	}
+
+	/**
+	 * Set beta for topic t, word w to val
+	 *
+	 * @param t
+	 * @param w
+	 * @param val
+	 */
+	public void override(int t, int w, double val)
+	{
+		assert(val > 0);
+		sums[t] += val - get(t, w);
+
+		int n = numover[w];
+		int k = (n == 0) ? -1 : Arrays.binarySearch(overtopics[w], 0, n, t);
+		if(k >= 0)
+		{
+			overvals[w][k] = val;
+			return;
+		}
+
+		// Insert (topic, value) at position -(k+1)
+		k = -(k + 1);
+		if(overtopics[w] == null)
+		{
+			overtopics[w] = new int[2];
+			overvals[w] = new double[2];
+		}
+		else if(n == overtopics[w].length)
+		{
+			overtopics[w] = Arrays.copyOf(overtopics[w], 2 * n);
+			overvals[w] = Arrays.copyOf(overvals[w], 2 * n);
+		}
+		System.arraycopy(overtopics[w], k, overtopics[w], k + 1, n - k);
+		System.arraycopy(overvals[w], k, overvals[w], k + 1, n - k);
+		overtopics[w][k] = t;
+		overvals[w][k] = val;
+		numover[w]++;
+		totalover++;
+	}
+
+	/**
+	 * Beta for topic t, word w
+	 */
+	public double get(int t, int w)
+	{
+		int n = numover[w];
+		if(n > 0)
+		{
+			int k = Arrays.binarySearch(overtopics[w], 0, n, t);
+			if(k >= 0)
+				return overvals[w][k];
+		}
+		return topicbeta[t];
+	}
+
+	/**
+	 * Beta of word w for every topic
+	 *
+	 * @param w
+	 * @param buf Length T scratch array, only used if w has overrides
+	 * @return Either buf or the shared per-topic base values (read-only!)
+	 */
+	public double[] wordBeta(int w, double[] buf)
+	{
+		int n = numover[w];
+		if(n == 0)
+			return topicbeta;
+		System.arraycopy(topicbeta, 0, buf, 0, T);
+		for(int k = 0; k < n; k++)
+			buf[overtopics[w][k]] = overvals[w][k];
+		return buf;
+	}
+
+	/**
+	 * Beta of topic t for every word (dense)
+	 *
+	 * @param t
+	 * @param buf Length W array to fill
+	 * @return buf
+	 */
+	public double[] row(int t, double[] buf)
+	{
+		Arrays.fill(buf, topicbeta[t]);
+		if(totalover > 0)
+			for(int w = 0; w < W; w++)
+				if(numover[w] > 0)
+					buf[w] = get(t, w);
+		return buf;
+	}
+
+	/**
+	 * Sum over words of beta for each topic (read-only)
+	 */
+	public double[] sums()
+	{
+		return sums;
+	}
+
+	/**
+	 * Per-topic beta if beta is constant across words for every topic
+	 * (no overrides), otherwise null
+	 */
+	public double[] topicBeta()
+	{
+		return (totalover == 0) ? topicbeta.clone() : null;
+	}
+
+	public int numOverrides()
+	{
+		return totalover;
+	}
+
+	public int numTopics()
+	{
+		return T;
+	}
+
+	public int numWords()
+	{
+		return W;
+	}
+}
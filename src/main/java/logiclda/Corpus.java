@@ -153,6 +153,25 @@ public class Corpus {
 		return this;				
 	}
 	
+	/**
+	 * Group corpus positions by document
+	 * 
+	 * @return D arrays, each holding the positions of one document in order
+	 */
+	public int[][] docIndices()
+	{
+		int[] doclen = new int[D];
+		for(int i = 0; i < N; i++)
+			doclen[d[i]]++;
+		int[][] docidx = new int[D][];
+		for(int di = 0; di < D; di++)
+			docidx[di] = new int[doclen[di]];
+		int[] fill = new int[D];
+		for(int i = 0; i < N; i++)
+			docidx[d[i]][fill[d[i]]++] = i;
+		return docidx;
+	}
+	
 	public void writeTopics(String basefn, Matrix matphi, int topN)
 	{		
 		writeTopics(basefn, matphi.toDoubleArray(), topN);
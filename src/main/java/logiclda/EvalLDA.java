@@ -1,6 +1,7 @@
 package logiclda;
 
 import logiclda.infer.DiscreteSample;
+import logiclda.infer.TopicCounts;
 import logiclda.LDAParameters;
 import org.apache.commons.math.special.Gamma;
 
@@ -17,9 +18,9 @@ public class EvalLDA
 	 * @param alpha
 	 * @return
 	 */
-	public static double ldaLoglike(long[][] nw, long[][] nd, 
+	public static double ldaLoglike(TopicCounts nw, TopicCounts nd, 
 			double[][] phi, double[][] theta,
-			double[][] beta, double[] alpha)
+			BetaPrior beta, double[] alpha)
 	{
 		double retval = 0;
 		
@@ -37,14 +38,68 @@ public class EvalLDA
 	public static double ldaLoglike(DiscreteSample s, LDAParameters p)
 	{
 		double[][] phi = new double[p.T][p.W];
-		double[][] theta = new double[s.nd.length][p.T];
+		double[][] theta = new double[s.nd.numRows()][p.T];
 		
 		phi = s.mapPhi(p, phi);
 		theta = s.mapTheta(p, theta);
 		
 		return ldaLoglike(s.nw, s.nd, phi, theta, p.beta, p.alpha);
 	}
-	
+
+	/**
+	 * Calc collapsed LDA log-likelihood log P(w,z | alpha, beta)
+	 * (phi and theta integrated out)
+	 *
+	 * Only nonzero counts contribute beyond the normalization terms,
+	 * so this is much cheaper than ldaLoglike for sparse counts
+	 * (no dense phi/theta are built)
+	 *
+	 * @param s
+	 * @param p
+	 * @return
+	 */
+	public static double collapsedLoglike(DiscreteSample s, LDAParameters p)
+	{
+		int T = p.T;
+		int[] topics = new int[T];
+		int[] counts = new int[T];
+		double retval = 0;
+
+		// Word-topic terms
+		for(int t = 0; t < T; t++)
+			retval += Gamma.logGamma(p.betasums[t])
+				- Gamma.logGamma(s.nwcolsums[t] + p.betasums[t]);
+		for(int w = 0; w < s.nw.numRows(); w++)
+		{
+			int nnz = s.nw.nonZeros(w, topics, counts);
+			for(int k = 0; k < nnz; k++)
+			{
+				double b = p.beta.get(topics[k], w);
+				retval += Gamma.logGamma(counts[k] + b) - Gamma.logGamma(b);
+			}
+		}
+
+		// Doc-topic terms
+		double alphasum = 0;
+		for(double a : p.alpha)
+			alphasum += a;
+		double lalphasum = Gamma.logGamma(alphasum);
+		for(int d = 0; d < s.nd.numRows(); d++)
+		{
+			int nnz = s.nd.nonZeros(d, topics, counts);
+			int doclen = 0;
+			for(int k = 0; k < nnz; k++)
+			{
+				double a = p.alpha[topics[k]];
+				retval += Gamma.logGamma(counts[k] + a) - Gamma.logGamma(a);
+				doclen += counts[k];
+			}
+			retval += lalphasum - Gamma.logGamma(doclen + alphasum);
+		}
+
+		return retval;
+	}
+
 	/**
 	 * Dirichlet log-likelihood of multinomial parameter vector x 
 	 * given Dirichlet hyperparameter vector alpha
@@ -92,15 +147,15 @@ public class EvalLDA
 	 * @param nw WxT count matrix 
 	 * @return
 	 */
-	public static double logPhi(double[][] phi, long[][] nw)
+	public static double logPhi(double[][] phi, TopicCounts nw)
 	{
-		assert(phi.length == nw[0].length);
-		assert(phi[0].length == nw.length);
+		assert(phi.length == nw.numTopics());
+		assert(phi[0].length == nw.numRows());
 		
 		double retval = 0;
 		for(int t = 0; t < phi.length; t++)
-			for(int w = 0; w < nw.length; w++)
-				retval += nw[w][t] * Math.log(phi[t][w]);
+			for(int w = 0; w < nw.numRows(); w++)
+				retval += nw.get(w, t) * Math.log(phi[t][w]);
 		return retval;
 	}
 	
@@ -110,15 +165,15 @@ public class EvalLDA
 	 * @param nd DxT count matrix 
 	 * @return
 	 */
-	public static double logTheta(double[][] theta, long[][] nd)
+	public static double logTheta(double[][] theta, TopicCounts nd)
 	{
-		assert(theta.length == nd.length);
-		assert(theta[0].length == nd[0].length);
+		assert(theta.length == nd.numRows());
+		assert(theta[0].length == nd.numTopics());
 		
 		double retval = 0;
 		for(int d = 0; d < theta.length; d++)
 			for(int t = 0; t < theta[0].length; t++)
-				retval += nd[d][t] * Math.log(theta[d][t]);
+				retval += nd.get(d, t) * Math.log(theta[d][t]);
 		return retval;
 	}
 	
@@ -139,6 +194,26 @@ public class EvalLDA
 		return retval;
 	}
 	
+	/**
+	 * Calc sum of logDir contrib for topic-word matrix phi
+	 * (beta expanded one topic at a time)
+	 * 
+	 * @param beta
+	 * @param phi
+	 * @return
+	 */
+	public static double logDirMat(BetaPrior beta, double[][] phi)
+	{
+		assert(beta.numTopics() == phi.length);
+		assert(beta.numWords() == phi[0].length);
+		
+		double[] row = new double[beta.numWords()];
+		double retval = 0;
+		for(int t = 0; t < phi.length; t++)
+			retval += EvalLDA.dirichletLoglike(beta.row(t, row), phi[t]);
+		return retval;
+	}
+	
 	/**
 	 * Calc sum of logDir contrib for multinomial parameter matrix x
 	 * (case where same alpha used for all realization rows of x)
@@ -0,0 +1,171 @@
+package logiclda;
+
+import logiclda.infer.CountLayout;
+import logiclda.infer.KernelType;
+import logiclda.infer.SamplerType;
+import logiclda.infer.StepSizeType;
+
+/**
+ * Optional inference settings, given as trailing name=value 
+ * command-line arguments (eg, sampler=alias mhsteps=4)
+ * 
+ * Anything not given keeps the default below. 
+ */
+public class InferOptions {
+
+	// Collapsed Gibbs sampling engine
+	public SamplerType sampler = SamplerType.DENSE;
+	
+	// Alias sampler: Metropolis-Hastings steps per token 
+	// (alternating word/doc proposals) and draws from a stale 
+	// word alias table before it is rebuilt (0 means T)
+	public int mhsteps = 2;
+	public int aliasrebuild = 0;
+	
+	// Dense sampler: number of threads (AD-LDA document shards)
+	public int threads = 1;
+	
+	// Memory layout of the topic count matrices, and whether
+	// document-topic counts are stored sparsely
+	public CountLayout countlayout = CountLayout.ROW_MAJOR;
+	public boolean sparsedoc = false;
+	
+	// Gibbs early stopping: check the log-likelihood every convcheck 
+	// samples (0 disables), stopping once its relative change is 
+	// below convtol
+	public int convcheck = 0;
+	public double convtol = 1e-4;
+	
+	// Gibbs checkpointing: write sampler state to %s.ckpt every 
+	// checkpoint samples, resuming from it if present (0 disables)
+	public int checkpoint = 0;
+	
+	// Implementation of the per-topic inner loops (TopicKernel)
+	public KernelType kernel = KernelType.SCALAR;
+	
+	// Number of independent Gibbs chains (the best one is kept)
+	public int chains = 1;
+	
+	// Mirror descent: number of threads taking inner loop steps 
+	// concurrently (Hogwild)
+	public int sgdthreads = 1;
+	
+	// Mirror descent: store relaxed z only for positions touched by 
+	// logic rules (the rest follow from phi/theta)
+	public boolean hybridrelax = false;
+	
+	// Mirror descent: groundings per (combined) step, and step size 
+	// schedule stepa / sqrt(stepb + n) (0 for the defaults, 
+	// sqrt(numinner) and numinner)
+	public int sgdbatch = 1;
+	public double sgdstepa = 0;
+	public double sgdstepb = 0;
+	
+	// Mirror descent: re-estimate phi/theta on a background thread 
+	// during each outer loop (used from the next one on)
+	public boolean pipelinephi = false;
+	
+	// Mirror descent: step size policy (StepSizePolicy)
+	public StepSizeType stepsize = StepSizeType.DECAYING;
+	
+	/**
+	 * Read name=value settings from args[start], args[start+1], ...
+	 * 
+	 * @param args
+	 * @param start
+	 */
+	public void parse(String[] args, int start)
+	{
+		for(int i = start; i < args.length; i++)
+		{
+			String[] keyval = args[i].split("=", 2);
+			if(keyval.length != 2 || !set(keyval[0], keyval[1]))
+			{
+				System.out.println(String.format("Unknown option: %s", args[i]));
+				System.exit(1);
+			}
+		}
+	}
+	
+	/**
+	 * Apply a single setting
+	 * 
+	 * @param name
+	 * @param value
+	 * @return false if name (or value) is not recognized
+	 */
+	public boolean set(String name, String value)
+	{
+		if(name.equals("sampler"))
+		{
+			for(SamplerType st : SamplerType.values())
+				if(st.matchesName(value))
+				{
+					sampler = st;
+					return true;
+				}
+			return false;
+		}
+		else if(name.equals("mhsteps"))
+			mhsteps = Integer.parseInt(value);
+		else if(name.equals("aliasrebuild"))
+			aliasrebuild = Integer.parseInt(value);
+		else if(name.equals("threads"))
+			threads = Integer.parseInt(value);
+		else if(name.equals("countlayout"))
+		{
+			for(CountLayout cl : CountLayout.values())
+				if(cl.matchesName(value))
+				{
+					countlayout = cl;
+					return true;
+				}
+			return false;
+		}
+		else if(name.equals("sparsedoc"))
+			sparsedoc = Boolean.parseBoolean(value);
+		else if(name.equals("convcheck"))
+			convcheck = Integer.parseInt(value);
+		else if(name.equals("convtol"))
+			convtol = Double.parseDouble(value);
+		else if(name.equals("checkpoint"))
+			checkpoint = Integer.parseInt(value);
+		else if(name.equals("kernel"))
+		{
+			for(KernelType kt : KernelType.values())
+				if(kt.matchesName(value))
+				{
+					kernel = kt;
+					return true;
+				}
+			return false;
+		}
+		else if(name.equals("chains"))
+			chains = Integer.parseInt(value);
+		else if(name.equals("sgdthreads"))
+			sgdthreads = Integer.parseInt(value);
+		else if(name.equals("hybridrelax"))
+			hybridrelax = Boolean.parseBoolean(value);
+		else if(name.equals("sgdbatch"))
+			sgdbatch = Integer.parseInt(value);
+		else if(name.equals("sgdstepa"))
+			sgdstepa = Double.parseDouble(value);
+		else if(name.equals("sgdstepb"))
+			sgdstepb = Double.parseDouble(value);
+		else if(name.equals("pipelinephi"))
+			pipelinephi = Boolean.parseBoolean(value);
+		else if(name.equals("stepsize"))
+		{
+			for(StepSizeType st : StepSizeType.values())
+				if(st.matchesName(value))
+				{
+					stepsize = st;
+					return true;
+				}
+			return false;
+		}
+		else
+			return false;
+		return true;
+	}
+}
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.util.*;
 
 import org.ujmp.core.Matrix;
-import org.ujmp.core.calculation.Calculation.Ret;
 import org.ujmp.core.exceptions.MatrixException;
 
 import logiclda.FileUtil;
@@ -12,14 +11,16 @@ import logiclda.FileUtil;
 public class LDAParameters {
 
 	private Matrix matalpha;
-	private Matrix matbeta;
 	public double[] alpha;
-	public double[][] beta;
+	public BetaPrior beta;
 	public double[] betasums;
+	public double[] topicbeta;
 	public int T;
 	public int W;
 	public int randseed;
-	public Random rng;
+	public String basefn;
+	public RandomStream rng;
+	public InferOptions opts;
 	
 	/**
 	 * 
@@ -29,32 +30,60 @@ public class LDAParameters {
 	 */
 	public LDAParameters(String basefn, int randseed) throws MatrixException, IOException
 	{
-		// Read in alpha/beta files
+		this.basefn = basefn;
+		
+		// Read in alpha/beta files 
+		// (beta stored compactly, see BetaPrior)
 		//
 		matalpha = FileUtil.readDoubleMatFile(String.format("%s.alpha",basefn));
-		matbeta = FileUtil.readDoubleMatFile(String.format("%s.beta",basefn));
 		alpha = matalpha.toDoubleArray()[0];
-		beta = matbeta.toDoubleArray();	
-		
-		// Ensure that alpha/beta agree on T
-		//
-		assert(matbeta.getSize(0) == matalpha.getSize(1));
+		T = alpha.length;
+		beta = BetaPrior.fromFile(basefn, T);
+		W = beta.numWords();
+		betasums = beta.sums();
 		
-		// Pre-calculate beta row sums
+		// If beta is constant across the vocabulary for each topic 
+		// (eg, as written by MakeParams.py), record the per-topic value 
+		// for use by the sparse samplers
 		//
-		T = (int) matbeta.getSize(0);
-		W = (int) matbeta.getSize(1);		
-		betasums = new double[T];		
-		for(int j = 0; j < T; j++)
-		{		
-			betasums[j] = 
-				(matbeta.subMatrix(Ret.LINK,j,0,j,W-1)).getValueSum();		
-		}
+		topicbeta = beta.topicBeta();
 		
 		// Construct random number generator
 		//
 		this.randseed = randseed;
-		this.rng = new Random(randseed);
+		this.rng = new XoshiroRandom(randseed);
+		
+		// Optional settings (defaults until overridden)
+		this.opts = new InferOptions();
+	}
+			
+	/**
+	 * Copy sharing alpha/beta/options (read-only) with this object, 
+	 * but with its own random number generator (eg, for one of several 
+	 * independent chains)
+	 * 
+	 * @param rng
+	 * @return
+	 */
+	public LDAParameters withRng(RandomStream rng)
+	{
+		LDAParameters copy = new LDAParameters();
+		copy.matalpha = matalpha;
+		copy.alpha = alpha;
+		copy.beta = beta;
+		copy.betasums = betasums;
+		copy.topicbeta = topicbeta;
+		copy.T = T;
+		copy.W = W;
+		copy.randseed = randseed;
+		copy.basefn = basefn;
+		copy.rng = rng;
+		copy.opts = opts;
+		return copy;
+	}
+	
+	private LDAParameters()
+	{
 	}
 			
 	public double alphaSum()
@@ -24,8 +24,10 @@ import java.io.*;
 import logiclda.StandardLDA;
 import logiclda.infer.CollapsedGibbs;
 import logiclda.infer.DiscreteSample;
+import logiclda.infer.LogicWeights;
 import logiclda.infer.RelaxedSample;
 import logiclda.infer.MirrorDescent;
+import logiclda.infer.MultiChain;
 import logiclda.rules.LDARule;
 import logiclda.rules.LogicRule;
 import logiclda.rules.RuleType;
@@ -59,6 +61,7 @@ public class LogicLDA {
 		// Load corpus and parameters (checking vocab dim agreement)
 		//
 		LDAParameters p = new LDAParameters(basefn, randseed);
+		p.opts.parse(args, 6);
 		Corpus c = new Corpus(basefn);		
 		assert(p.W == c.W);
 				
@@ -76,7 +79,8 @@ public class LogicLDA {
 		if(init.exists())
 		{
 			// from *.init file
-			s = new DiscreteSample(c.N, p.T, c.W, c.D, init.getCanonicalPath(), c);
+			s = new DiscreteSample(c.N, p.T, c.W, c.D, init.getCanonicalPath(), c,
+					p.opts);
 		}
 		else
 		{
@@ -84,8 +88,12 @@ public class LogicLDA {
 			// run Logic Collapsed Gibbs for numsamp
 			if(numouter > 0)
 			{
-				double[][] logicweights = rs.seedsToZL(c.N, p.T);
-				s = CollapsedGibbs.doLogicGibbs(logicweights, c, p, numsamp);
+				LogicWeights logicweights = rs.seedsToZL(c.N, p.T);
+				if(p.opts.chains > 1)
+					s = MultiChain.runChains(logicweights, rs, c, p, numsamp, 
+							p.opts.chains);
+				else
+					s = CollapsedGibbs.doLogicGibbs(logicweights, c, p, numsamp);
 			}
 			else
 			{
@@ -121,12 +129,10 @@ public class LogicLDA {
 			DiscreteSample s, int numouter, int numinner)
 	{				
 		// Init relaxed z-sample and RuleSet
-		RelaxedSample relax = new RelaxedSample(c, p, s);						
+		RelaxedSample relax = rs.relaxedSample(c, p, s);
 		
 		// Do LogicLDA MAP inference via Stochastic Gradient Descent				
-		double stepa = Math.sqrt(numinner);
-		double stepb = (double) numinner;
-		relax = rs.doSGD(c, p, relax, numouter, numinner, stepa, stepb);
+		relax = rs.doSGD(c, p, relax, numouter, numinner);
 		
 		// Return final RelaxedSample
 		return relax;
@@ -154,7 +160,7 @@ public class LogicLDA {
  		for(LogicRule lr : rules)
 			lr.applyEvidence(c, T);
 		// Create RuleSet
- 		return new MirrorDescent(rules, new Random(randseed + 1));	
+ 		return new MirrorDescent(rules, new XoshiroRandom(randseed + 1));	
 	}
 	
 	/**
@@ -120,7 +120,7 @@ public class MiscUtil {
 	 * @param normsum
 	 * @return
 	 */
-	public static int multSample(Random rng, double[] vals, double normsum)
+	public static int multSample(RandomStream rng, double[] vals, double normsum)
 	{
 		double rval = rng.nextDouble() * normsum;
 		double cumsum = 0;
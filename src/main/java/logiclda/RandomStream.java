@@ -0,0 +1,40 @@
+package logiclda;
+
+/**
+ * Source of random numbers used throughout inference 
+ * (not thread-safe: give each thread its own stream via split())
+ */
+public interface RandomStream 
+{
+	/**
+	 * Uniform double in [0,1)
+	 */
+	public double nextDouble();
+	
+	/**
+	 * Uniform int in [0,bound)
+	 */
+	public int nextInt(int bound);
+	
+	/**
+	 * Uniform long (all 64 bits random)
+	 */
+	public long nextLong();
+	
+	/**
+	 * New stream, statistically independent of this one and of 
+	 * any other stream split from it, determined entirely by the 
+	 * current state of this stream 
+	 */
+	public RandomStream split();
+	
+	/**
+	 * Copy of the full generator state (eg, for checkpointing)
+	 */
+	public long[] getState();
+	
+	/**
+	 * Restore a state previously returned by getState()
+	 */
+	public void setState(long[] state);
+}
@@ -4,6 +4,7 @@ import java.io.*;
 
 import logiclda.infer.CollapsedGibbs;
 import logiclda.infer.DiscreteSample;
+import logiclda.infer.MultiChain;
 
 import org.ujmp.core.exceptions.MatrixException;
 
@@ -25,6 +26,7 @@ public class StandardLDA {
 		// Load corpus and parameters (checking vocab dim agreement)
 		//
 		LDAParameters p = new LDAParameters(basefn, randseed);
+		p.opts.parse(args, 4);
 		Corpus c = new Corpus(basefn);		
 		assert(p.W == c.W);
 		
@@ -41,6 +43,7 @@ public class StandardLDA {
 	
 	/**
 	 * Standard (no logic) LDA, using collapsed Gibbs sampling
+	 * (engine, thread count and number of chains are taken from p.opts)
 	 * 
 	 * @param c
 	 * @param p
@@ -50,6 +53,9 @@ public class StandardLDA {
 	public static DiscreteSample runStandardLDA(Corpus c, LDAParameters p, int numsamp)
 	{	
 		// Do Collapsed Gibbs sampling and return final sample
+		// (of the best chain, if running several)
+		if(p.opts.chains > 1)
+			return MultiChain.runChains(c, p, numsamp, p.opts.chains);
 		DiscreteSample s = CollapsedGibbs.doGibbs(c, p, numsamp);		
 		return s;
 	}
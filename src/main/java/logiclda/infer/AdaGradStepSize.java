@@ -0,0 +1,36 @@
+package logiclda.infer;
+
+/**
+ * AdaGrad: step size eta / sqrt(G_i) for position i, where G_i is the 
+ * sum of squared gradient norms of all its updates so far (including 
+ * this one)
+ * 
+ * Positions which are rarely sampled keep large steps, instead of 
+ * following the global schedule.  G is a single float per position.
+ */
+public class AdaGradStepSize extends StepSizePolicy 
+{
+	// Keeps steps finite for (near) zero gradients
+	private static final double EPS = 1e-10;
+	
+	private double eta;
+	private float[] sumsq;
+	
+	/**
+	 * @param N Corpus length
+	 * @param eta Base step size
+	 */
+	public AdaGradStepSize(int N, double eta)
+	{
+		this.eta = eta;
+		this.sumsq = new float[N];
+	}
+	
+	public double stepSize(long n, Gradient grad, int gi)
+	{
+		int i = grad.indices[gi];
+		double g = sumsq[i] + sqNorm(grad, gi);
+		sumsq[i] = (float) g;
+		return eta / Math.sqrt(g + EPS);
+	}
+}
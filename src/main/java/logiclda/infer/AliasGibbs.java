@@ -0,0 +1,381 @@
+package logiclda.infer;
+
+import java.util.Arrays;
+
+import logiclda.AliasTable;
+import logiclda.Corpus;
+import logiclda.LDAParameters;
+
+/**
+ *
+ * Alias table Metropolis-Hastings sampling for (Logic) LDA
+ * (Yuan et al. WWW 2015, "LightLDA")
+ *
+ * Each token takes opts.mhsteps MH steps, alternating between
+ *
+ * word-proposal  q(t) ~ (nw + beta) / (nwcolsum + betasum)
+ * doc-proposal   q(t) ~ nd + alpha
+ *
+ * The word-proposal is drawn in O(1) from stale alias tables.  Each
+ * table is rebuilt after it has been drawn from opts.aliasrebuild times
+ * (T by default, so rebuilding is amortized O(1) per draw).  The
+ * doc-proposal is drawn in O(1) by copying the topic of a random token
+ * in the same document (or sampling alpha).  Acceptance ratios use the
+ * exact proposal probabilities, so per-token cost does not grow with T.
+ *
+ * Online initialization is done densely.
+ *
+ * Like SparseGibbs, requires beta to be constant across words for
+ * each topic (see LDAParameters.topicbeta).
+ *
+ */
+public class AliasGibbs {
+
+	private Corpus c;
+	private LDAParameters p;
+	private DiscreteSample s;
+	private int T;
+
+	// Per-topic beta
+	private double[] beta;
+
+	// Corpus positions grouped by document
+	private int[][] docidx;
+
+	// Draws allowed from a table before it is rebuilt
+	private int rebuildafter;
+
+	// Stale word-proposal, nw part: a sparse table per word
+	// (topics sorted ascending, weights nw / (nwcolsum + betasum))
+	private int[][] staletopics;
+	private int[][] stalecounts;
+	private double[][] staleweights;
+	private AliasTable[] wordtables;
+	private int[] worddraws;
+	private int[] wordbuilds;
+
+	// Stale word-proposal, beta part: shared by all words
+	private double[] stalesmooth;
+	private AliasTable smoothtable;
+	private int smoothdraws;
+
+	// Each token's own count is excluded from its word-proposal,
+	// which requires knowing its topic when its word table was built
+	// (stalez), valid whenever seenbuild matches wordbuilds
+	private int[] stalez;
+	private int[] seenbuild;
+
+	// Alpha part of the doc-proposal
+	private AliasTable alphatable;
+	private double alphasum;
+
+	// Scratch space for table construction
+	private double[] wbuf;
+	private int[] tbuf;
+	private int[] cbuf;
+
+	/**
+	 * Build alias sampling data structures for an existing sample
+	 *
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param s Sample object to be updated in place
+	 */
+	public AliasGibbs(Corpus c, LDAParameters p, DiscreteSample s)
+	{
+		assert(p.topicbeta != null);
+		this.c = c;
+		this.p = p;
+		this.s = s;
+		this.T = p.T;
+		this.beta = p.topicbeta;
+
+		docidx = c.docIndices();
+		rebuildafter = (p.opts.aliasrebuild > 0) ? p.opts.aliasrebuild : T;
+		wbuf = new double[T];
+		tbuf = new int[T];
+		cbuf = new int[T];
+
+		staletopics = new int[p.W][];
+		stalecounts = new int[p.W][];
+		staleweights = new double[p.W][];
+		wordtables = new AliasTable[p.W];
+		worddraws = new int[p.W];
+		wordbuilds = new int[p.W];
+		for(int w = 0; w < p.W; w++)
+		{
+			wordtables[w] = new AliasTable(0);
+			rebuildWord(w);
+		}
+
+		stalesmooth = new double[T];
+		smoothtable = new AliasTable(T);
+		rebuildSmooth();
+
+		stalez = new int[c.N];
+		seenbuild = new int[c.N];
+		Arrays.fill(seenbuild, -1);
+
+		alphatable = new AliasTable(p.alpha);
+		alphasum = alphatable.total();
+	}
+
+	/**
+	 * Can the alias sampler be used with these hyperparameters?
+	 *
+	 * @param p
+	 * @return
+	 */
+	public static boolean supports(LDAParameters p)
+	{
+		return p.topicbeta != null;
+	}
+
+	/**
+	 * External method for doing online-init, then numsamp alias
+	 * (Logic) Gibbs samples
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do
+	 * @return The final sample from the Markov Chain
+	 */
+	public static DiscreteSample doAliasGibbs(LogicWeights logicweights,
+			Corpus c, LDAParameters p, int numsamp)
+	{
+		// Online initialization (unless resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, 
+				Checkpoint.model(logicweights), numsamp);
+		DiscreteSample s = ckpt.resume();
+		if(s == null)
+		{
+			s = new DiscreteSample(c.N, p.T, p.W, c.D, p.opts);
+			if(logicweights == null)
+				CollapsedGibbs.gibbsSample(c, p, s, true);
+			else
+				CollapsedGibbs.logicGibbsSample(logicweights, c, p, s, true);
+		}
+
+		// Do the samples (stopping early if converged)
+		AliasGibbs ag = new AliasGibbs(c, p, s);
+		ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+				numsamp - ckpt.iteration());
+		for(int si = ckpt.iteration(); si < numsamp; si++)
+		{
+			System.out.println(String.format("Sample %d of %d", si, numsamp));
+			ag.sample(logicweights);
+			ckpt.save(s, si + 1);
+			if(mon.converged(s))
+				break;
+		}
+		mon.report();
+		ckpt.complete();
+
+		return s;
+	}
+
+	/**
+	 * Rebuild the nw part of the word-proposal for word w
+	 *
+	 * @param w
+	 */
+	private void rebuildWord(int w)
+	{
+		int nnz = s.nw.nonZeros(w, tbuf, cbuf);
+		for(int k = 0; k < nnz; k++)
+			wbuf[k] = cbuf[k] / (s.nwcolsums[tbuf[k]] + p.betasums[tbuf[k]]);
+		if(staletopics[w] == null || staletopics[w].length != nnz)
+		{
+			staletopics[w] = new int[nnz];
+			stalecounts[w] = new int[nnz];
+			staleweights[w] = new double[nnz];
+		}
+		for(int k = 0; k < nnz; k++)
+		{
+			staletopics[w][k] = tbuf[k];
+			stalecounts[w][k] = cbuf[k];
+			staleweights[w][k] = wbuf[k];
+		}
+		wordtables[w].build(wbuf, nnz);
+		worddraws[w] = 0;
+		wordbuilds[w]++;
+	}
+
+	/**
+	 * Rebuild the (shared) beta part of the word-proposal
+	 */
+	private void rebuildSmooth()
+	{
+		for(int t = 0; t < T; t++)
+			stalesmooth[t] = beta[t] / (s.nwcolsums[t] + p.betasums[t]);
+		smoothtable.build(stalesmooth, T);
+		smoothdraws = 0;
+	}
+
+	/**
+	 * Do a single alias MH sweep over the whole corpus
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 */
+	public void sample(LogicWeights logicweights)
+	{
+		for(int d = 0; d < c.D; d++)
+		{
+			int[] doc = docidx[d];
+			for(int i : doc)
+			{
+				int w = c.w[i];
+				LogicWeights lw = (logicweights != null && 
+						logicweights.hasWeights(i)) ? logicweights : null;
+
+				// Rebuild exhausted tables (while this token is still counted)
+				if(worddraws[w] >= rebuildafter)
+					rebuildWord(w);
+				if(smoothdraws >= rebuildafter)
+					rebuildSmooth();
+
+				// If word table was rebuilt since we last saw this token,
+				// the table holds its current topic
+				if(seenbuild[i] != wordbuilds[w])
+				{
+					stalez[i] = s.z[i];
+					seenbuild[i] = wordbuilds[w];
+				}
+
+				// Remove current assignment from counts
+				int cur = s.z[i];
+				s.updateCounts(w, cur, d, -1);
+
+				for(int step = 0; step < p.opts.mhsteps; step++)
+				{
+					int prop;
+					double accept;
+					if(step % 2 == 0)
+					{
+						// Word-proposal
+						prop = wordProposal(w, stalez[i]);
+						if(prop == cur)
+							continue;
+						accept = (target(prop, w, d, lw, i) * staleProb(w, cur, stalez[i]))
+							/ (target(cur, w, d, lw, i) * staleProb(w, prop, stalez[i]));
+					}
+					else
+					{
+						// Doc-proposal (z[i] == cur is included in the document,
+						// which accounts for the current token's own count)
+						double u = p.rng.nextDouble() * (doc.length + alphasum);
+						if(u < doc.length)
+							prop = s.z[doc[(int) u]];
+						else
+							prop = alphatable.sample(p.rng);
+						if(prop == cur)
+							continue;
+						// nd + alpha terms cancel against the proposal
+						accept = wordTerm(prop, w, lw, i) / wordTerm(cur, w, lw, i);
+					}
+
+					if(accept >= 1 || p.rng.nextDouble() < accept)
+					{
+						cur = prop;
+						s.z[i] = cur;
+					}
+				}
+
+				// Update the count matrices
+				s.z[i] = cur;
+				s.updateCounts(w, cur, d, 1);
+			}
+		}
+	}
+
+	/**
+	 * Draw from the stale word-proposal for word w, excluding the
+	 * current token's own stale count (which was assigned to topic own)
+	 *
+	 * The own count only ever inflates the table, so it is removed
+	 * by rejection: this keeps the proposal independent of the
+	 * token's current topic, which MH requires.
+	 *
+	 * @param w
+	 * @param own
+	 * @return
+	 */
+	private int wordProposal(int w, int own)
+	{
+		worddraws[w]++;
+		smoothdraws++;
+
+		AliasTable wt = wordtables[w];
+		double wsum = wt.size() > 0 ? wt.total() : 0;
+		while(true)
+		{
+			int t;
+			if(p.rng.nextDouble() * (wsum + smoothtable.total()) < wsum)
+				t = staletopics[w][wt.sample(p.rng)];
+			else
+				t = smoothtable.sample(p.rng);
+			if(t != own || p.rng.nextDouble() * staleProb(w, t, -1)
+					< staleProb(w, t, own))
+				return t;
+		}
+	}
+
+	/**
+	 * Un-normalized stale word-proposal probability of topic t,
+	 * excluding one stale count from topic own (-1 for none)
+	 *
+	 * @param w
+	 * @param t
+	 * @param own
+	 * @return
+	 */
+	private double staleProb(int w, int t, int own)
+	{
+		double val = stalesmooth[t];
+		int k = Arrays.binarySearch(staletopics[w], t);
+		if(k >= 0)
+		{
+			int count = stalecounts[w][k];
+			if(t == own)
+				val += staleweights[w][k] * (count - 1) / count;
+			else
+				val += staleweights[w][k];
+		}
+		return val;
+	}
+
+	/**
+	 * Word-dependent part of the full conditional (times logic weight)
+	 *
+	 * @param t
+	 * @param w
+	 * @param lw Logic weights (null if none apply to this position)
+	 * @param i Corpus position
+	 * @return
+	 */
+	private double wordTerm(int t, int w, LogicWeights lw, int i)
+	{
+		double val = (s.nw.get(w, t) + beta[t]) / (s.nwcolsums[t] + p.betasums[t]);
+		if(lw != null)
+			val *= lw.factor(i, t);
+		return val;
+	}
+
+	/**
+	 * Un-normalized full conditional of topic t
+	 *
+	 * @param t
+	 * @param w
+	 * @param d
+	 * @param lw Logic weights (null if none apply to this position)
+	 * @param i Corpus position
+	 * @return
+	 */
+	private double target(int t, int w, int d, LogicWeights lw, int i)
+	{
+		return (s.nd.get(d, t) + p.alpha[t]) * wordTerm(t, w, lw, i);
+	}
+}
@@ -0,0 +1,170 @@
+package logiclda.infer;
+
+import logiclda.RandomStream;
+
+/**
+ * TopicKernel arranged for throughput: 
+ * 
+ * - loops are unrolled by 4 with independent partial sums (no single 
+ * add chain), which the JIT can pipeline or vectorize
+ * - sampling is two-level: weights() records the sum of each block 
+ * of BLOCK topics, so sample() scans T / BLOCK block sums and then a 
+ * single block, instead of up to T cumulative sums
+ * 
+ * Arithmetic is reordered relative to ScalarKernel, so samples differ 
+ * from the reference kernel in the last bits.
+ */
+public class BlockedKernel extends TopicKernel 
+{
+	private static final int BLOCK = 16;
+	
+	private int numblocks;
+	private double[] blocksums;
+	
+	public BlockedKernel(int T)
+	{
+		super(T);
+		numblocks = (T + BLOCK - 1) / BLOCK;
+		blocksums = new double[numblocks];
+	}
+	
+	public double weights(int[] nw, int[] nd, long[] colsums, 
+			double[] beta, double[] betasums, double[] alpha, double[] vals)
+	{
+		// Weights and block sums in one pass, 4 topics at a time
+		double normsum = 0;
+		for(int b = 0; b < numblocks; b++)
+		{
+			int end = Math.min(T, (b + 1) * BLOCK);
+			double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+			int t = b * BLOCK;
+			for(; t + 3 < end; t += 4)
+			{
+				double v0 = (nw[t] + beta[t]) / (colsums[t] + betasums[t])
+					* (nd[t] + alpha[t]);
+				double v1 = (nw[t + 1] + beta[t + 1]) 
+					/ (colsums[t + 1] + betasums[t + 1])
+					* (nd[t + 1] + alpha[t + 1]);
+				double v2 = (nw[t + 2] + beta[t + 2]) 
+					/ (colsums[t + 2] + betasums[t + 2])
+					* (nd[t + 2] + alpha[t + 2]);
+				double v3 = (nw[t + 3] + beta[t + 3]) 
+					/ (colsums[t + 3] + betasums[t + 3])
+					* (nd[t + 3] + alpha[t + 3]);
+				vals[t] = v0;
+				vals[t + 1] = v1;
+				vals[t + 2] = v2;
+				vals[t + 3] = v3;
+				s0 += v0;
+				s1 += v1;
+				s2 += v2;
+				s3 += v3;
+			}
+			for(; t < end; t++)
+			{
+				vals[t] = (nw[t] + beta[t]) / (colsums[t] + betasums[t])
+					* (nd[t] + alpha[t]);
+				s0 += vals[t];
+			}
+			blocksums[b] = (s0 + s1) + (s2 + s3);
+			normsum += blocksums[b];
+		}
+		return normsum;
+	}
+	
+	public double applyFactors(LogicWeights lw, int i, 
+			double[] vals, double normsum)
+	{
+		for(int k = lw.start(i); k < lw.end(i); k++)
+		{
+			int t = lw.topic(k);
+			double delta = vals[t] * (lw.factor(k) - 1);
+			vals[t] += delta;
+			blocksums[t / BLOCK] += delta;
+			normsum += delta;
+		}
+		return normsum;
+	}
+	
+	public int sample(RandomStream rng, double[] vals, double normsum)
+	{
+		double u = rng.nextDouble() * normsum;
+		// Find the block
+		int b = 0;
+		while(b < numblocks - 1 && u >= blocksums[b])
+		{
+			u -= blocksums[b];
+			b++;
+		}
+		// Find the topic within the block
+		int t = b * BLOCK;
+		int last = Math.min(T, (b + 1) * BLOCK) - 1;
+		while(t < last && u >= vals[t])
+		{
+			u -= vals[t];
+			t++;
+		}
+		return t;
+	}
+	
+	public void expStep(double[] z, double[] grad, double stepsize)
+	{
+		// exp(0) = 1, so entries without gradient are left alone
+		for(int t = 0; t < grad.length; t++)
+			if(grad[t] != 0)
+				z[t] *= Math.exp(stepsize * grad[t]);
+	}
+	
+	public double normalize(double[] x)
+	{
+		double normsum = sum(x);
+		double scale = 1 / normsum;
+		for(int t = 0; t < x.length; t++)
+			x[t] *= scale;
+		return normsum;
+	}
+	
+	public double sum(double[] x)
+	{
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int t = 0;
+		for(; t + 3 < x.length; t += 4)
+		{
+			s0 += x[t];
+			s1 += x[t + 1];
+			s2 += x[t + 2];
+			s3 += x[t + 3];
+		}
+		for(; t < x.length; t++)
+			s0 += x[t];
+		return (s0 + s1) + (s2 + s3);
+	}
+	
+	public void rescale(double[] z, double[] src, double scale, 
+			double[] nw, double[] nd)
+	{
+		// (plain loop: the JIT vectorizes it, unrolling by hand 
+		// measured slower)
+		for(int t = 0; t < T; t++)
+		{
+			double delta = src[t] * scale - z[t];
+			z[t] += delta;
+			nw[t] += delta;
+			nd[t] += delta;
+		}
+	}
+	
+	public void addTo(double[] dst, double[] src)
+	{
+		int t = 0;
+		for(; t + 3 < src.length; t += 4)
+		{
+			dst[t] += src[t];
+			dst[t + 1] += src[t + 1];
+			dst[t + 2] += src[t + 2];
+			dst[t + 3] += src[t + 3];
+		}
+		for(; t < src.length; t++)
+			dst[t] += src[t];
+	}
+}
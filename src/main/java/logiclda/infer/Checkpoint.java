@@ -0,0 +1,453 @@
+package logiclda.infer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import logiclda.Corpus;
+import logiclda.LDAParameters;
+
+/**
+ *
+ * Periodic binary checkpoints of Gibbs sampler state, for resuming
+ * long runs after a crash (or preemption)
+ *
+ * Every opts.checkpoint samples, z, the count matrices, the random
+ * number generator state and the number of completed samples are
+ * written to %s.ckpt (basefn).  The sampler only pauses long enough
+ * to copy its state; the copy is written to disk by a background
+ * thread (to a temporary file which then replaces the old checkpoint).
+ *
+ * If opts.checkpoint is set and %s.ckpt exists, sampling resumes from
+ * it instead of doing online initialization.  Arrays are read back in
+ * bulk, rather than re-adding one token at a time as for %s.init.
+ * The header records the model being sampled, the random seed and the
+ * target number of samples, and a checkpoint which does not match the
+ * current run is refused.  The checkpoint is deleted once sampling
+ * completes, so a later run starts from scratch.
+ *
+ * Resuming the serial dense sampler reproduces the uninterrupted run
+ * exactly.  The other samplers resume from the same state, but rebuild
+ * their own caches (sparse bucket sums, alias tables, shard generators),
+ * so the chain continues from there along a different path.
+ *
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x4C4C4441;
+	private static final int VERSION = 2;
+	private static final int HEADERLEN = 10;
+
+	// Bytes transferred per read/write call
+	private static final int BUFSIZE = 1 << 20;
+
+	private Corpus c;
+	private LDAParameters p;
+	private String filename;
+	private int every;
+	private int iteration;
+	private Model model;
+	private int numsamp;
+	private Thread writer;
+
+	/**
+	 * Distribution being sampled (only a checkpoint of the same 
+	 * model can be resumed)
+	 */
+	public enum Model
+	{
+		LDA, // standard LDA
+		LOGIC, // LogicLDA
+		GROUND; // Ground LogicLDA
+	}
+
+	/**
+	 * Model sampled by doGibbs/doLogicGibbs (or another engine they 
+	 * hand off to), given its logic weights
+	 *
+	 * @param logicweights null for standard LDA
+	 */
+	public static Model model(LogicWeights logicweights)
+	{
+		return (logicweights == null) ? Model.LDA : Model.LOGIC;
+	}
+
+	/**
+	 * Checkpointing for a run on corpus c (disabled if
+	 * p.opts.checkpoint is 0)
+	 *
+	 * @param c
+	 * @param p
+	 * @param model Distribution being sampled
+	 * @param numsamp Total number of samples the run will do
+	 */
+	public Checkpoint(Corpus c, LDAParameters p, Model model, int numsamp)
+	{
+		this.c = c;
+		this.p = p;
+		this.model = model;
+		this.numsamp = numsamp;
+		this.filename = String.format("%s.ckpt", p.basefn);
+		this.every = p.opts.checkpoint;
+		this.iteration = 0;
+		this.writer = null;
+	}
+
+	/**
+	 * Number of samples already completed (0 unless resumed)
+	 */
+	public int iteration()
+	{
+		return iteration;
+	}
+
+	/**
+	 * Load the sample (and restore p.rng) from the checkpoint file,
+	 * if checkpointing is enabled and the file exists
+	 *
+	 * @return Resumed sample, or null to start from scratch
+	 */
+	public DiscreteSample resume()
+	{
+		File f = new File(filename);
+		if(every <= 0 || !f.exists())
+			return null;
+		try
+		{
+			FileInputStream in = new FileInputStream(f);
+			try
+			{
+				ChannelReader rd = new ChannelReader(in.getChannel());
+				int[] header = new int[HEADERLEN];
+				rd.readInts(header, HEADERLEN);
+				if(header[0] != MAGIC || header[1] != VERSION ||
+						header[2] != c.N || header[3] != p.T ||
+						header[4] != p.W || header[5] != c.D)
+				{
+					System.out.println(String.format("Checkpoint %s does not " +
+							"match this corpus/parameters", filename));
+					System.exit(1);
+				}
+				if(header[6] != model.ordinal() || 
+						header[7] != p.randseed || header[8] != numsamp)
+				{
+					System.out.println(String.format("Checkpoint %s is from " +
+							"a different run (%s model, seed %d, %d samples)", 
+							filename, Model.values()[header[6]], 
+							header[7], header[8]));
+					System.out.println(String.format("Delete it to start " +
+							"this run (%s model, seed %d, %d samples) " +
+							"from scratch", model, p.randseed, numsamp));
+					System.exit(1);
+				}
+
+				long[] state = new long[rd.readInt()];
+				rd.readLongs(state, state.length);
+
+				DiscreteSample s = new DiscreteSample(c.N, p.T, p.W, c.D, p.opts);
+				rd.readInts(s.z, c.N);
+				rd.readLongs(s.nwcolsums, p.T);
+				readCounts(rd, s.nw);
+				readCounts(rd, s.nd);
+
+				p.rng.setState(state);
+				iteration = header[9];
+				System.out.println(String.format("Resuming from %s " +
+						"(%d samples done)", filename, iteration));
+				if(iteration >= numsamp)
+					System.out.println(String.format("Warning: checkpoint %s " +
+							"is from a run which already finished", filename));
+				return s;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ioe)
+		{
+			System.out.println(String.format("Problem reading checkpoint %s",
+					filename));
+			System.out.println(ioe.toString());
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Record that sample number iteration is complete, writing a
+	 * checkpoint (in the background) if one is due
+	 *
+	 * @param s
+	 * @param iteration Samples completed so far
+	 */
+	public void save(DiscreteSample s, int iteration)
+	{
+		if(every <= 0 || iteration % every != 0)
+			return;
+		// One write at a time
+		finish();
+
+		// Snapshot the state (so sampling can continue during the write)
+		final int snapiter = iteration;
+		final long[] state = p.rng.getState();
+		final int[] z = s.z.clone();
+		final long[] nwcolsums = s.nwcolsums.clone();
+		final TopicCounts nw = s.nw.copy();
+		final TopicCounts nd = s.nd.copy();
+
+		writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				write(snapiter, state, z, nwcolsums, nw, nd);
+			}
+		});
+		writer.start();
+	}
+
+	/**
+	 * Wait for any checkpoint write in progress
+	 */
+	public void finish()
+	{
+		if(writer == null)
+			return;
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				writer.join();
+				break;
+			}
+			catch(InterruptedException ie)
+			{
+				interrupted = true;
+			}
+		}
+		writer = null;
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Wait for any checkpoint write in progress, then delete the 
+	 * checkpoint (called once sampling is complete)
+	 */
+	public void complete()
+	{
+		finish();
+		if(every <= 0)
+			return;
+		File f = new File(filename);
+		if(f.exists() && !f.delete())
+			System.out.println(String.format("Could not delete checkpoint %s",
+					filename));
+	}
+
+	/**
+	 * Write snapshot to a temporary file, then move it into place
+	 */
+	private void write(int snapiter, long[] state, int[] z,
+			long[] nwcolsums, TopicCounts nw, TopicCounts nd)
+	{
+		File tmp = new File(filename + ".tmp");
+		try
+		{
+			RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+			try
+			{
+				out.setLength(0);
+				ChannelWriter wr = new ChannelWriter(out.getChannel());
+				wr.writeInts(new int[] {MAGIC, VERSION, z.length,
+						nw.numTopics(), nw.numRows(), nd.numRows(), 
+						model.ordinal(), p.randseed, numsamp, snapiter}, 
+						HEADERLEN);
+				wr.writeInt(state.length);
+				wr.writeLongs(state, state.length);
+				wr.writeInts(z, z.length);
+				wr.writeLongs(nwcolsums, nwcolsums.length);
+				writeCounts(wr, nw);
+				writeCounts(wr, nd);
+				wr.flush();
+				out.getChannel().force(true);
+			}
+			finally
+			{
+				out.close();
+			}
+			File dest = new File(filename);
+			dest.delete();
+			if(!tmp.renameTo(dest))
+				throw new IOException(String.format("Could not rename %s",
+						tmp.getPath()));
+		}
+		catch(IOException ioe)
+		{
+			// Keep sampling, the previous checkpoint (if any) is still usable
+			System.out.println(String.format("Problem writing checkpoint %s",
+					filename));
+			System.out.println(ioe.toString());
+		}
+	}
+
+	/**
+	 * Write counts row by row as (nnz, topics, counts)
+	 */
+	private static void writeCounts(ChannelWriter wr, TopicCounts counts)
+		throws IOException
+	{
+		int[] topics = new int[counts.numTopics()];
+		int[] vals = new int[counts.numTopics()];
+		for(int r = 0; r < counts.numRows(); r++)
+		{
+			int nnz = counts.nonZeros(r, topics, vals);
+			wr.writeInt(nnz);
+			wr.writeInts(topics, nnz);
+			wr.writeInts(vals, nnz);
+		}
+	}
+
+	/**
+	 * Read counts written by writeCounts into (empty) counts
+	 */
+	private static void readCounts(ChannelReader rd, TopicCounts counts)
+		throws IOException
+	{
+		int[] topics = new int[counts.numTopics()];
+		int[] vals = new int[counts.numTopics()];
+		for(int r = 0; r < counts.numRows(); r++)
+		{
+			int nnz = rd.readInt();
+			rd.readInts(topics, nnz);
+			rd.readInts(vals, nnz);
+			// (ascending topics, so sparse rows are appended to in order)
+			for(int k = 0; k < nnz; k++)
+				counts.add(r, topics[k], vals[k]);
+		}
+	}
+
+	/**
+	 * Buffered bulk writes of int/long arrays to a channel
+	 */
+	private static class ChannelWriter
+	{
+		private FileChannel ch;
+		private ByteBuffer buf;
+
+		ChannelWriter(FileChannel ch)
+		{
+			this.ch = ch;
+			this.buf = ByteBuffer.allocateDirect(BUFSIZE);
+		}
+
+		void writeInt(int val) throws IOException
+		{
+			if(buf.remaining() < 4)
+				flush();
+			buf.putInt(val);
+		}
+
+		void writeInts(int[] vals, int len) throws IOException
+		{
+			int off = 0;
+			while(off < len)
+			{
+				if(buf.remaining() < 4)
+					flush();
+				int n = Math.min(len - off, buf.remaining() / 4);
+				buf.asIntBuffer().put(vals, off, n);
+				buf.position(buf.position() + 4 * n);
+				off += n;
+			}
+		}
+
+		void writeLongs(long[] vals, int len) throws IOException
+		{
+			int off = 0;
+			while(off < len)
+			{
+				if(buf.remaining() < 8)
+					flush();
+				int n = Math.min(len - off, buf.remaining() / 8);
+				buf.asLongBuffer().put(vals, off, n);
+				buf.position(buf.position() + 8 * n);
+				off += n;
+			}
+		}
+
+		void flush() throws IOException
+		{
+			buf.flip();
+			while(buf.hasRemaining())
+				ch.write(buf);
+			buf.clear();
+		}
+	}
+
+	/**
+	 * Buffered bulk reads of int/long arrays from a channel
+	 */
+	private static class ChannelReader
+	{
+		private FileChannel ch;
+		private ByteBuffer buf;
+
+		ChannelReader(FileChannel ch)
+		{
+			this.ch = ch;
+			this.buf = ByteBuffer.allocateDirect(BUFSIZE);
+			this.buf.flip();
+		}
+
+		/**
+		 * Ensure at least nbytes are buffered
+		 */
+		private void fill(int nbytes) throws IOException
+		{
+			if(buf.remaining() >= nbytes)
+				return;
+			buf.compact();
+			while(buf.position() < nbytes)
+				if(ch.read(buf) < 0)
+					throw new IOException("Unexpected end of checkpoint file");
+			buf.flip();
+		}
+
+		int readInt() throws IOException
+		{
+			fill(4);
+			return buf.getInt();
+		}
+
+		void readInts(int[] vals, int len) throws IOException
+		{
+			int off = 0;
+			while(off < len)
+			{
+				fill(4);
+				int n = Math.min(len - off, buf.remaining() / 4);
+				buf.asIntBuffer().get(vals, off, n);
+				buf.position(buf.position() + 4 * n);
+				off += n;
+			}
+		}
+
+		void readLongs(long[] vals, int len) throws IOException
+		{
+			int off = 0;
+			while(off < len)
+			{
+				fill(8);
+				int n = Math.min(len - off, buf.remaining() / 8);
+				buf.asLongBuffer().get(vals, off, n);
+				buf.position(buf.position() + 8 * n);
+				off += n;
+			}
+		}
+	}
+}
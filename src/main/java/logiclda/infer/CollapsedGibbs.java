@@ -1,7 +1,6 @@
 package logiclda.infer;
 
 
-import java.util.Random;
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.List;
@@ -32,40 +31,58 @@ public class CollapsedGibbs {
 	 * @param p Contains hyperparameters
 	 * @param s Sample object to be updated in place
 	 * @param onlineInit If true, don't pre-subtract counts 
+	 * @param phi TxW topic P(w|z) matrix
 	 */
 	public static void fixedPhiSample(Corpus c, LDAParameters p, DiscreteSample s,
 			boolean onlineInit, double[][] phi)
+	{
+		fixedPhiSample(c, p, s, onlineInit, new FixedPhi(phi, p.alpha));
+	}
+	
+	/**
+	 * Do a single Collapsed Gibbs sample, but with topic-words Phi fixed
+	 * (cost per token is the number of nonzero topics in its document, 
+	 * plus an alias table draw)
+	 * 
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param s Sample object to be updated in place
+	 * @param onlineInit If true, don't pre-subtract counts 
+	 * @param phi Fixed phi, with smoothing tables for p.alpha
+	 */
+	public static void fixedPhiSample(Corpus c, LDAParameters p, DiscreteSample s,
+			boolean onlineInit, FixedPhi phi)
 	{
 		int N = c.N;
 		int T = p.T;
 		
 		double[] tmp = new double[T];
+		FixedPhi.DocTopics doc = new FixedPhi.DocTopics(T);
+		int curdoc = -1;
 		for(int i = 0; i < N; i++)
 		{
-			// Reset sampling normalization sum to 0
-			double normsum = 0;
-
+			// Nonzero topics of this document 
+			// (reloaded whenever the document changes)
+			if(c.d[i] != curdoc)
+			{
+				curdoc = c.d[i];
+				doc.load(s.nd, curdoc);
+			}
+			
 			// Remove current assignment from counts
 			// (unless we're doing 'online-style' init)
 			if(!onlineInit)
 			{
 				s.updateCounts(c.w[i], s.z[i], c.d[i], -1);				
+				doc.add(s.z[i], -1);
 			}
 		
-			// Get un-normalized probabilities for each topic
-			for(int j = 0; j < T; j++)
-			{				
-				double phiterm = phi[j][c.w[i]];
-				double num2 = s.nd[c.d[i]][j] + p.alpha[j];				
-				tmp[j] = phiterm * num2;
-				normsum += tmp[j];
-			}		
-			
 			// Sample the assignment
-			s.z[i] = MiscUtil.multSample(p.rng, tmp, normsum);
+			s.z[i] = phi.sample(p.rng, c.w[i], doc, tmp);
 			
 			// Update the count matrices
 			s.updateCounts(c.w[i], s.z[i], c.d[i], 1);			
+			doc.add(s.z[i], 1);
 		}		
 		return;	
 	}
@@ -129,19 +146,32 @@ public class CollapsedGibbs {
 		int W = p.W;
 		int D = c.D;
 		
-		// Online initialization
-		DiscreteSample s = new DiscreteSample(N, T, W, D);
-		CollapsedGibbs.gibbsSample(c, p, s, true);
+		// Online initialization (unless resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, Checkpoint.Model.GROUND, 
+				numsamp);
+		DiscreteSample s = ckpt.resume();
+		if(s == null)
+		{
+			s = new DiscreteSample(N, T, W, D, p.opts);
+			CollapsedGibbs.gibbsSample(c, p, s, true);
+		}
 						
 		// Ground the Logic Rules
 		GroundRules gr = new GroundRules(grules, s.z, p.rng, p.T);		
 		
-		// Do the samples
-		for(int si = 0; si < numsamp; si++)
+		// Do the samples (stopping early if converged)
+		ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+				numsamp - ckpt.iteration());
+		for(int si = ckpt.iteration(); si < numsamp; si++)
 		{
 			System.out.println(String.format("Sample %d of %d", si, numsamp));
 			CollapsedGibbs.groundGibbsSample(gr, c, p, s, false);
+			ckpt.save(s, si + 1);
+			if(mon.converged(s))
+				break;
 		}
+		mon.report();
+		ckpt.complete();
 		
 		return s;
 	}
@@ -164,6 +194,8 @@ public class CollapsedGibbs {
 		int T = p.T;
 		
 		double[] tmp = new double[T];
+		double[] betabuf = new double[T];
+		double[] logic = new double[T];
 		for(int i = 0; i < N; i++)
 		{
 			// Reset sampling normalization sum to 0
@@ -176,22 +208,26 @@ public class CollapsedGibbs {
 				s.updateCounts(c.w[i], s.z[i], c.d[i], -1);				
 			}
 		
+			// If applicable, get the logic contribution of every topic 
+			// (single pass over the groundings of i)
+			boolean inlogic = gr.inLogic(i);
+			if(inlogic)
+				gr.evalAllAssign(s.z, i, logic);
+			
 			// Get un-normalized probabilities for each topic
+			double[] wbeta = p.beta.wordBeta(c.w[i], betabuf);
 			for(int j = 0; j < T; j++)
 			{
-				double num1 = s.nw[c.w[i]][j] + p.beta[j][c.w[i]];
+				double num1 = s.nw.get(c.w[i], j) + wbeta[j];
 				double den1 = s.nwcolsums[j] + p.betasums[j];
-				double num2 = s.nd[c.d[i]][j] + p.alpha[j];			
+				double num2 = s.nd.get(c.d[i], j) + p.alpha[j];			
 								
 				tmp[j] = (num1 / den1) * num2;
 				
 				// If applicable, multiply the standard Collapsed Gibbs term 
 				// by the exp of the logic contribution				
-				if(gr.inLogic(i))
-				{
-					s.z[i] = j;
-					tmp[j] *= Math.exp(gr.evalAssign(s.z, i));
-				}					
+				if(inlogic)
+					tmp[j] *= Math.exp(logic[j]);
 								
 				normsum += tmp[j];
 			}		
@@ -209,32 +245,58 @@ public class CollapsedGibbs {
 	/**
 	 * External method for doing online-init, then numsamp Logic Gibbs samples
 	 * 
-	 * @param logicweights N x T matrix of (independent) rule contributions
+	 * @param logicweights Sparse (independent) rule contributions
 	 * @param c Contains words, documents
 	 * @param p Contains hyperparameters
 	 * @param numsamp How many samples to do
 	 * @param randseed Seed for random number generator 
 	 * @return The final sample from the Markov Chain
 	 */
-	public static DiscreteSample doLogicGibbs(double[][] logicweights, 
+	public static DiscreteSample doLogicGibbs(LogicWeights logicweights, 
 			Corpus c, LDAParameters p, int numsamp)
 	{
+		// Hand off to another sampling engine if one was selected
+		switch(engine(p))
+		{
+		case SPARSE:
+			return SparseGibbs.doSparseGibbs(logicweights, c, p, numsamp);
+		case ALIAS:
+			return AliasGibbs.doAliasGibbs(logicweights, c, p, numsamp);
+		default:
+			if(p.opts.threads > 1)
+				return ParallelGibbs.doParallelGibbs(logicweights, c, p, numsamp);
+			break;
+		}
+		
 		// Get relevant dimensions
 		int N = c.N;		
 		int T = p.T;
 		int W = p.W;
 		int D = c.D;
 		
-		// Online initialization
-		DiscreteSample s = new DiscreteSample(N, T, W, D);
-		CollapsedGibbs.logicGibbsSample(logicweights, c, p, s, true);
+		// Online initialization (unless resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, Checkpoint.Model.LOGIC, 
+				numsamp);
+		DiscreteSample s = ckpt.resume();
+		if(s == null)
+		{
+			s = new DiscreteSample(N, T, W, D, p.opts);
+			CollapsedGibbs.logicGibbsSample(logicweights, c, p, s, true);
+		}
 		
-		// Do the samples
-		for(int si = 0; si < numsamp; si++)
+		// Do the samples (stopping early if converged)
+		ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+				numsamp - ckpt.iteration());
+		for(int si = ckpt.iteration(); si < numsamp; si++)
 		{
 			System.out.println(String.format("Sample %d of %d", si, numsamp));
 			CollapsedGibbs.logicGibbsSample(logicweights, c, p, s, false);
+			ckpt.save(s, si + 1);
+			if(mon.converged(s))
+				break;
 		}
+		mon.report();
+		ckpt.complete();
 		
 		return s;
 	}
@@ -242,14 +304,14 @@ public class CollapsedGibbs {
 	/**
 	 * Do a single Logic Collapsed Gibbs sample
 	 * 
-	 * @param logicweights N x T matrix of (independent) rule contributions
+	 * @param logicweights Sparse (independent) rule contributions
 	 * @param c Contains words, documents
 	 * @param p Contains hyperparameters
 	 * @param s Sample object to be updated in place
 	 * @param rng Random number generator for sampling
 	 * @param onlineInit If true, don't pre-subtract counts 
 	 */
-	public static void logicGibbsSample(double[][] logicweights,
+	public static void logicGibbsSample(LogicWeights logicweights,
 			Corpus c, LDAParameters p, DiscreteSample s, 
 			boolean onlineInit)            
 	{				
@@ -257,11 +319,12 @@ public class CollapsedGibbs {
 		int T = p.T;
 		
 		double[] tmp = new double[T];
+		double[] betabuf = new double[T];
+		int[] nwrow = new int[T];
+		int[] ndrow = new int[T];
+		TopicKernel kernel = TopicKernel.create(p.opts, T);
 		for(int i = 0; i < N; i++)
 		{
-			// Reset sampling normalization sum to 0
-			double normsum = 0;
-
 			// Remove current assignment from counts
 			// (unless we're doing 'online-style' init)
 			if(!onlineInit)
@@ -270,20 +333,18 @@ public class CollapsedGibbs {
 			}
 		
 			// Get un-normalized probabilities for each topic
-			for(int j = 0; j < T; j++)
-			{
-				double num1 = s.nw[c.w[i]][j] + p.beta[j][c.w[i]];
-				double den1 = s.nwcolsums[j] + p.betasums[j];
-				double num2 = s.nd[c.d[i]][j] + p.alpha[j];			
-				if(logicweights[i] != null)
-					tmp[j] = (num1 / den1) * num2 * Math.exp(logicweights[i][j]);
-				else
-					tmp[j] = (num1 / den1) * num2;
-				normsum += tmp[j];
-			}		
+			double[] wbeta = p.beta.wordBeta(c.w[i], betabuf);
+			double normsum = kernel.weights(s.nw.getRow(c.w[i], nwrow), 
+					s.nd.getRow(c.d[i], ndrow), s.nwcolsums, wbeta, 
+					p.betasums, p.alpha, tmp);
+			
+			// If applicable, multiply by the (precomputed) exp 
+			// of the logic contribution
+			if(logicweights.hasWeights(i))
+				normsum = kernel.applyFactors(logicweights, i, tmp, normsum);
 			
 			// Sample the assignment
-			s.z[i] = MiscUtil.multSample(p.rng, tmp, normsum);
+			s.z[i] = kernel.sample(p.rng, tmp, normsum);
 			
 			// Update the count matrices
 			s.updateCounts(c.w[i], s.z[i], c.d[i], 1);			
@@ -301,26 +362,73 @@ public class CollapsedGibbs {
 	 */
 	public static DiscreteSample doGibbs(Corpus c, LDAParameters p, int numsamp)
 	{
+		// Hand off to another sampling engine if one was selected
+		switch(engine(p))
+		{
+		case SPARSE:
+			return SparseGibbs.doSparseGibbs(c, p, numsamp);
+		case ALIAS:
+			return AliasGibbs.doAliasGibbs(null, c, p, numsamp);
+		default:
+			if(p.opts.threads > 1)
+				return ParallelGibbs.doParallelGibbs(c, p, numsamp);
+			break;
+		}
+		
 		// Get relevant dimensions
 		int N = c.N;		
 		int T = p.T;
 		int W = p.W;
 		int D = c.D;
 		
-		// Online initialization
-		DiscreteSample s = new DiscreteSample(N, T, W, D);
-		CollapsedGibbs.gibbsSample(c, p, s, true);
+		// Online initialization (unless resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, Checkpoint.Model.LDA, 
+				numsamp);
+		DiscreteSample s = ckpt.resume();
+		if(s == null)
+		{
+			s = new DiscreteSample(N, T, W, D, p.opts);
+			CollapsedGibbs.gibbsSample(c, p, s, true);
+		}
 		
-		// Do the samples
-		for(int si = 0; si < numsamp; si++)
+		// Do the samples (stopping early if converged)
+		ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+				numsamp - ckpt.iteration());
+		for(int si = ckpt.iteration(); si < numsamp; si++)
 		{
 			System.out.println(String.format("Sample %d of %d", si, numsamp));
 			CollapsedGibbs.gibbsSample(c, p, s, false);
+			ckpt.save(s, si + 1);
+			if(mon.converged(s))
+				break;
 		}
+		mon.report();
+		ckpt.complete();
 		
 		return s;
 	}
 	
+	/**
+	 * Which sampling engine to use for doGibbs/doLogicGibbs 
+	 * (falls back to DENSE if the selected engine cannot handle p) 
+	 * 
+	 * @param p
+	 * @return
+	 */
+	private static SamplerType engine(LDAParameters p)
+	{
+		SamplerType st = p.opts.sampler;
+		if((st == SamplerType.SPARSE && !SparseGibbs.supports(p)) ||
+				(st == SamplerType.ALIAS && !AliasGibbs.supports(p)))
+		{
+			System.out.println(String.format("Sampler %s requires beta to be " +
+					"constant within each topic, using dense sampler", 
+					st.toString()));
+			st = SamplerType.DENSE;
+		}
+		return st;
+	}
+	
 	/**
 	 * Do a single Collapsed Gibbs sample
 	 * 
@@ -337,11 +445,12 @@ public class CollapsedGibbs {
 		int T = p.T;
 		
 		double[] tmp = new double[T];
+		double[] betabuf = new double[T];
+		int[] nwrow = new int[T];
+		int[] ndrow = new int[T];
+		TopicKernel kernel = TopicKernel.create(p.opts, T);
 		for(int i = 0; i < N; i++)
 		{
-			// Reset sampling normalization sum to 0
-			double normsum = 0;
-
 			// Remove current assignment from counts
 			// (unless we're doing 'online-style' init)
 			if(!onlineInit)
@@ -350,17 +459,13 @@ public class CollapsedGibbs {
 			}
 		
 			// Get un-normalized probabilities for each topic
-			for(int j = 0; j < T; j++)
-			{
-				double num1 = s.nw[c.w[i]][j] + p.beta[j][c.w[i]];
-				double den1 = s.nwcolsums[j] + p.betasums[j];
-				double num2 = s.nd[c.d[i]][j] + p.alpha[j];				
-				tmp[j] = (num1 / den1) * num2;
-				normsum += tmp[j];
-			}		
+			double[] wbeta = p.beta.wordBeta(c.w[i], betabuf);
+			double normsum = kernel.weights(s.nw.getRow(c.w[i], nwrow), 
+					s.nd.getRow(c.d[i], ndrow), s.nwcolsums, wbeta, 
+					p.betasums, p.alpha, tmp);
 			
 			// Sample the assignment
-			s.z[i] = MiscUtil.multSample(p.rng, tmp, normsum);
+			s.z[i] = kernel.sample(p.rng, tmp, normsum);
 			
 			// Update the count matrices
 			s.updateCounts(c.w[i], s.z[i], c.d[i], 1);			
@@ -0,0 +1,89 @@
+package logiclda.infer;
+
+import logiclda.EvalLDA;
+import logiclda.LDAParameters;
+
+/**
+ *
+ * Early stopping for Gibbs sampling runs
+ *
+ * Every opts.convcheck sweeps, the collapsed log-likelihood
+ * (EvalLDA.collapsedLoglike) is computed, and the run is declared
+ * converged once its relative change since the previous check
+ * falls below opts.convtol.  Disabled when opts.convcheck is 0,
+ * in which case every run uses all of its sweeps.
+ *
+ * Also tracks sampling throughput (time spent checking is excluded).
+ *
+ */
+public class ConvergenceMonitor {
+
+	private LDAParameters p;
+	private long numtokens;
+	private int numsamp;
+	private int every;
+	private double tol;
+
+	private int sweeps;
+	private double lastll;
+	private long starttime;
+	private long checktime;
+
+	/**
+	 * Start monitoring a run (call just before the first sweep)
+	 *
+	 * @param p Contains hyperparameters and options
+	 * @param numtokens Corpus positions visited per sweep
+	 * @param numsamp Maximum number of sweeps
+	 */
+	public ConvergenceMonitor(LDAParameters p, long numtokens, int numsamp)
+	{
+		this.p = p;
+		this.numtokens = numtokens;
+		this.numsamp = numsamp;
+		this.every = p.opts.convcheck;
+		this.tol = p.opts.convtol;
+		this.sweeps = 0;
+		this.lastll = Double.NaN;
+		this.checktime = 0;
+		this.starttime = System.nanoTime();
+	}
+
+	/**
+	 * Record a completed sweep, checking for convergence if due
+	 *
+	 * @param s Sample after the sweep
+	 * @return true if the run should stop now
+	 */
+	public boolean converged(DiscreteSample s)
+	{
+		sweeps++;
+		if(every <= 0 || sweeps % every != 0)
+			return false;
+
+		long t0 = System.nanoTime();
+		double ll = EvalLDA.collapsedLoglike(s, p);
+		checktime += System.nanoTime() - t0;
+
+		double change = Math.abs((ll - lastll) / lastll);
+		System.out.println(String.format("Sample %d loglike = %f " +
+				"(relative change %g)", sweeps, ll, change));
+		lastll = ll;
+		// (NaN on the first check, so never stops there)
+		return change < tol;
+	}
+
+	/**
+	 * Print sweeps used/saved and tokens per second
+	 * (only if convergence checking is enabled)
+	 */
+	public void report()
+	{
+		if(every <= 0)
+			return;
+		double secs = (System.nanoTime() - starttime - checktime) / 1e9;
+		System.out.println(String.format("Stopped after %d of %d samples " +
+				"(%d saved), %.0f tokens/sec", sweeps, numsamp,
+				numsamp - sweeps, (sweeps * (double) numtokens) / secs));
+	}
+}
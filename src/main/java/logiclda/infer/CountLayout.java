@@ -0,0 +1,22 @@
+package logiclda.infer;
+
+/**
+ * Memory layout for dense topic counts (DenseCounts)
+ */
+public enum CountLayout 
+{
+	ROW_MAJOR("row"), // counts for a word/document are contiguous
+	TOPIC_MAJOR("topic"); // counts for a topic are contiguous
+	
+	private final String layoutName;
+	
+	CountLayout(String name)
+	{
+		this.layoutName = name;		
+	}
+		
+	public boolean matchesName(String str)
+	{
+		return this.layoutName.equalsIgnoreCase(str);
+	}
+}
@@ -0,0 +1,22 @@
+package logiclda.infer;
+
+/**
+ * Global schedule stepa / sqrt(stepb + n), the same for every position
+ * (n restarts every outer loop)
+ */
+public class DecayingStepSize extends StepSizePolicy 
+{
+	private double stepa;
+	private double stepb;
+	
+	public DecayingStepSize(double stepa, double stepb)
+	{
+		this.stepa = stepa;
+		this.stepb = stepb;
+	}
+	
+	public double stepSize(long n, Gradient grad, int gi)
+	{
+		return stepa / Math.sqrt(stepb + n);
+	}
+}
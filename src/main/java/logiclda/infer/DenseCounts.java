@@ -0,0 +1,123 @@
+package logiclda.infer;
+
+/**
+ * Topic counts stored in a single flat int array 
+ * (row-major or topic-major, see CountLayout)
+ * 
+ * Compared to long[R][T] this halves memory and avoids 
+ * one heap object per row.
+ */
+public class DenseCounts implements TopicCounts {
+
+	private int[] counts;
+	private int R;
+	private int T;
+	private CountLayout layout;
+	
+	// Index of (r,t) is r * rstride + t * tstride
+	private int rstride;
+	private int tstride;
+	
+	/**
+	 * All-zero counts
+	 * 
+	 * @param R Number of rows (words or documents)
+	 * @param T Number of topics
+	 * @param layout
+	 * @throws IllegalArgumentException if R * T does not fit in one array
+	 */
+	public DenseCounts(int R, int T, CountLayout layout)
+	{
+		if((long) R * T > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format(
+					"%d x %d counts do not fit in one array", R, T));
+		this.R = R;
+		this.T = T;
+		this.layout = layout;
+		this.counts = new int[R * T];
+		if(layout == CountLayout.ROW_MAJOR)
+		{
+			rstride = T;
+			tstride = 1;
+		}
+		else
+		{
+			rstride = 1;
+			tstride = R;
+		}
+	}
+	
+	public int get(int r, int t)
+	{
+		return counts[r * rstride + t * tstride];
+	}
+	
+	public void add(int r, int t, int delta)
+	{
+		counts[r * rstride + t * tstride] += delta;
+	}
+	
+	public int nonZeros(int r, int[] topics, int[] counts)
+	{
+		int n = 0;
+		for(int t = 0; t < T; t++)
+		{
+			int val = this.counts[r * rstride + t * tstride];
+			if(val != 0)
+			{
+				topics[n] = t;
+				if(counts != null)
+					counts[n] = val;
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	public int[] getRow(int r, int[] buf)
+	{
+		if(tstride == 1)
+			System.arraycopy(counts, r * rstride, buf, 0, T);
+		else
+			for(int t = 0; t < T; t++)
+				buf[t] = counts[r * rstride + t * tstride];
+		return buf;
+	}
+	
+	public int numRows()
+	{
+		return R;
+	}
+	
+	public int numTopics()
+	{
+		return T;
+	}
+	
+	public CountLayout getLayout()
+	{
+		return layout;
+	}
+	
+	public void copyFrom(TopicCounts other)
+	{
+		assert(other.numRows() == R && other.numTopics() == T);
+		if(other instanceof DenseCounts && 
+				((DenseCounts) other).layout == layout)
+		{
+			System.arraycopy(((DenseCounts) other).counts, 0, counts, 0, 
+					counts.length);
+			return;
+		}
+		for(int r = 0; r < R; r++)
+			for(int t = 0; t < T; t++)
+				counts[r * rstride + t * tstride] = other.get(r, t);
+	}
+	
+	public TopicCounts copy()
+	{
+		DenseCounts dc = new DenseCounts(R, T, layout);
+		dc.copyFrom(this);
+		return dc;
+	}
+}
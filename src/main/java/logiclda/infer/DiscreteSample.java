@@ -12,6 +12,7 @@ import org.ujmp.core.enums.FileFormat;
 import org.ujmp.core.enums.ValueType;
 
 import logiclda.Corpus;
+import logiclda.InferOptions;
 import logiclda.LDAParameters;
 import logiclda.MiscUtil;
 import logiclda.FileUtil;
@@ -22,8 +23,9 @@ public class DiscreteSample implements Sample {
 	public static final double MIN_PHI = 0.001;
 	public static final double MIN_THETA = 0.001;
 	
-	public long[][] nw;
-	public long[][] nd;
+	// Count matrices (W x T and D x T)
+	public TopicCounts nw;
+	public TopicCounts nd;
 	public long[] nwcolsums;
 	public int[] z;
 	
@@ -41,16 +43,24 @@ public class DiscreteSample implements Sample {
 	public DiscreteSample(int N, int T, int W, int D,
 			String filename, Corpus c)
 	{
-		// Hidden topic assignments
-		z = new int[N];		
-		// Count matrices
-		nw = new long[W][T];
-		nd = new long[D][T];		
-		// Column sums for word-topic count array
-		nwcolsums = new long[T];
-		for(int j = 0; j < T; j++)		
-			nwcolsums[j] = 0;
-		
+		this(N, T, W, D, filename, c, new InferOptions());
+	}
+	
+	/**
+	 * Init from a given *.init or *.sample file
+	 * 
+	 * @param N
+	 * @param T
+	 * @param W
+	 * @param D
+	 * @param filename
+	 * @param c
+	 * @param opts Count matrix storage settings
+	 */
+	public DiscreteSample(int N, int T, int W, int D,
+			String filename, Corpus c, InferOptions opts)
+	{
+		this(N, T, W, D, opts);
 		this.fromFile(filename, c);
 	}
 	
@@ -63,16 +73,31 @@ public class DiscreteSample implements Sample {
 	 * @param D
 	 */
 	public DiscreteSample(int N, int T, int W, int D)
+	{
+		this(N, T, W, D, new InferOptions());
+	}
+	
+	/**
+	 * Init to empty sample
+	 * 
+	 * @param N
+	 * @param T
+	 * @param W
+	 * @param D
+	 * @param opts Count matrix storage settings
+	 */
+	public DiscreteSample(int N, int T, int W, int D, InferOptions opts)
 	{
 		// Hidden topic assignments
 		z = new int[N];		
 		// Count matrices
-		nw = new long[W][T];
-		nd = new long[D][T];		
+		nw = new DenseCounts(W, T, opts.countlayout);
+		if(opts.sparsedoc)
+			nd = new SparseCounts(D, T);
+		else
+			nd = new DenseCounts(D, T, opts.countlayout);		
 		// Column sums for word-topic count array
 		nwcolsums = new long[T];
-		for(int j = 0; j < T; j++)		
-			nwcolsums[j] = 0;				
 	}
 	
 	/**
@@ -87,16 +112,24 @@ public class DiscreteSample implements Sample {
 	public DiscreteSample(int N, int T, int W, int D,
 			int[] givenz, Corpus c)
 	{
+		this(N, T, W, D, givenz, c, new InferOptions());
+	}
+	
+	/**
+	 *  Init from a given z-assignment
+	 * @param N
+	 * @param T
+	 * @param W
+	 * @param D
+	 * @param givenz
+	 * @param c
+	 * @param opts Count matrix storage settings
+	 */
+	public DiscreteSample(int N, int T, int W, int D,
+			int[] givenz, Corpus c, InferOptions opts)
+	{
+		this(N, T, W, D, opts);
 		assert(givenz.length == N && c.N == N);
-		this.z = new int[N];		
-						
-		// Count matrices
-		nw = new long[W][T];
-		nd = new long[D][T];		
-		// Column sums for word-topic count array
-		nwcolsums = new long[T];
-		for(int j = 0; j < T; j++)		
-			nwcolsums[j] = 0;		
 		
 		// Set count matrices accordingly
 		for(int i = 0; i < z.length; i++)
@@ -149,7 +182,7 @@ public class DiscreteSample implements Sample {
 			for(int w = 0; w < p.W; w++)
 			{
 				// Cannot allow negative entries
-				phi[t][w] = Math.max(MIN_PHI, this.nw[w][t] + p.beta[t][w] - 1);
+				phi[t][w] = Math.max(MIN_PHI, this.nw.get(w, t) + p.beta.get(t, w) - 1);
 				normsum += phi[t][w];
 			}
 			// Normalize
@@ -168,13 +201,13 @@ public class DiscreteSample implements Sample {
 	public double[][] mapTheta(LDAParameters p, double[][] theta)
 	{
 		// Estimate entries
-		for(int d = 0; d < nd.length; d++)
+		for(int d = 0; d < nd.numRows(); d++)
 		{
 			double normsum = 0;
 			for(int t = 0; t < p.T; t++)
 			{
 				// Cannot allow negative entries
-				theta[d][t] = Math.max(MIN_THETA, nd[d][t] + p.alpha[t] - 1);
+				theta[d][t] = Math.max(MIN_THETA, nd.get(d, t) + p.alpha[t] - 1);
 				normsum += theta[d][t];
 			}
 			// Normalize
@@ -223,9 +256,9 @@ public class DiscreteSample implements Sample {
 	 */
 	public void updateCounts(int w, int t, int d, int update)
 	{
-		nw[w][t] += update;
+		nw.add(w, t, update);
 		nwcolsums[t] += update;
-		nd[d][t] += update;
+		nd.add(d, t, update);
 	}
 	
 	/**
@@ -235,9 +268,8 @@ public class DiscreteSample implements Sample {
 	 */
 	public Matrix getPhi(LDAParameters p)
 	{
-		long W = nw.length;
-		long T = nw[0].length;
-		long D = nd.length;
+		long W = nw.numRows();
+		long T = nw.numTopics();
 
 		// Alloc phi matrix
 		long[] msize2 = new long[2];
@@ -252,7 +284,7 @@ public class DiscreteSample implements Sample {
 			double bsum = p.betasums[ti];
 			for(int wi = 0; wi < W; wi++)
 			{
-				double val = (nw[wi][ti] + p.beta[ti][wi]) / (colsum + bsum);
+				double val = (nw.get(wi, ti) + p.beta.get(ti, wi)) / (colsum + bsum);
 				phi.setAsDouble(val, ti, wi);
 			}
 		}				
@@ -266,8 +298,8 @@ public class DiscreteSample implements Sample {
 	 */
 	public Matrix getTheta(LDAParameters p)
 	{
-		long D =  nd.length;
-		long T =  nd[0].length;
+		long D =  nd.numRows();
+		long T =  nd.numTopics();
 		long[] msize2 = new long[2];
 		msize2[0] = D;
 		msize2[1] = T;		
@@ -281,12 +313,12 @@ public class DiscreteSample implements Sample {
 			// Get sum of counts for this document			
 			double doclen = 0;
 			for(int ti = 0; ti < T; ti++)
-				doclen += nd[di][ti];
+				doclen += nd.get(di, ti);
 
 			// Calculate entries
 			for(int ti = 0; ti < T; ti++)
 			{
-				double val = (nd[di][ti] + p.alpha[ti]) / (doclen + asum);
+				double val = (nd.get(di, ti) + p.alpha[ti]) / (doclen + asum);
 				theta.setAsDouble(val, di, ti);
 			}
 		}				
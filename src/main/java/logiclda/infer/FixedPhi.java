@@ -0,0 +1,217 @@
+package logiclda.infer;
+
+import java.util.Arrays;
+
+import logiclda.AliasTable;
+import logiclda.RandomStream;
+
+/**
+ *
+ * Fixed topic-word phi, arranged for sampling z given phi
+ *
+ * P(z = t | w, d) ~ phi[t][w] * (nd[t] + alpha[t])
+ *                 = phi[t][w] * nd[t] + phi[t][w] * alpha[t]
+ *
+ * phi is stored transposed (the T values of a word are adjacent), and
+ * each word has an alias table over its phi[t][w] * alpha[t]
+ * (smoothing) term, which does not depend on the document.  A token
+ * then costs one pass over the nonzero topics of its document (the
+ * first term, tracked incrementally by DocTopics) plus an O(1) alias
+ * draw, instead of a pass over all T topics.
+ *
+ * Sampling is exact, but draws random numbers differently from a
+ * dense pass over the topics.
+ *
+ */
+public class FixedPhi {
+
+	private int T;
+	private int W;
+
+	// phi transposed: wordphi[w * T + t] = phi[t][w]
+	private double[] wordphi;
+
+	// Per-word tables over phi[t][w] * alpha[t] (null if built
+	// without alpha)
+	private AliasTable[] smoothtables;
+
+	/**
+	 * Transposed view only (for get(), no sampling)
+	 *
+	 * @param phi TxW topic P(w|z) matrix (copied)
+	 * @throws IllegalArgumentException if W * T does not fit in one array
+	 */
+	public FixedPhi(double[][] phi)
+	{
+		this.T = phi.length;
+		this.W = phi[0].length;
+		if((long) W * T > Integer.MAX_VALUE)
+			throw new IllegalArgumentException(String.format(
+					"%d x %d phi does not fit in one array", T, W));
+		wordphi = new double[W * T];
+		for(int t = 0; t < T; t++)
+			for(int w = 0; w < W; w++)
+				wordphi[w * T + t] = phi[t][w];
+		smoothtables = null;
+	}
+
+	/**
+	 * Transposed view and per-word smoothing tables
+	 *
+	 * @param phi TxW topic P(w|z) matrix (copied)
+	 * @param alpha Document-topic hyperparameter
+	 */
+	public FixedPhi(double[][] phi, double[] alpha)
+	{
+		this(phi);
+		assert(alpha.length == T);
+		smoothtables = new AliasTable[W];
+		double[] weights = new double[T];
+		for(int w = 0; w < W; w++)
+		{
+			for(int t = 0; t < T; t++)
+				weights[t] = wordphi[w * T + t] * alpha[t];
+			smoothtables[w] = new AliasTable(weights);
+			smoothtables[w].trim();
+		}
+	}
+
+	/**
+	 * phi[t][w]
+	 */
+	public double get(int w, int t)
+	{
+		return wordphi[w * T + t];
+	}
+
+	public int numTopics()
+	{
+		return T;
+	}
+
+	public int numWords()
+	{
+		return W;
+	}
+
+	/**
+	 * Sample z for a token of word w, given the (current) topic counts
+	 * of its document (excluding the token itself)
+	 *
+	 * @param rng
+	 * @param w
+	 * @param doc Nonzero topic counts of the document
+	 * @param buf Scratch array, length at least T
+	 * @return
+	 */
+	public int sample(RandomStream rng, int w, DocTopics doc, double[] buf)
+	{
+		assert(smoothtables != null);
+		int off = w * T;
+		double docmass = 0;
+		for(int k = 0; k < doc.nnz; k++)
+		{
+			buf[k] = wordphi[off + doc.topics[k]] * doc.counts[k];
+			docmass += buf[k];
+		}
+
+		AliasTable smooth = smoothtables[w];
+		double u = rng.nextDouble() * (docmass + smooth.total());
+		if(u >= docmass)
+			return smooth.sample(rng);
+		for(int k = 0; k < doc.nnz - 1; k++)
+		{
+			if(u < buf[k])
+				return doc.topics[k];
+			u -= buf[k];
+		}
+		return doc.topics[doc.nnz - 1];
+	}
+
+	/**
+	 * Nonzero topic counts of a single document, as an unordered
+	 * (topic, count) list with O(1) updates
+	 */
+	public static class DocTopics
+	{
+		int nnz;
+		int[] topics;
+		int[] counts;
+
+		// Position of each topic in topics/counts (-1 if zero)
+		private int[] pos;
+
+		public DocTopics(int T)
+		{
+			nnz = 0;
+			topics = new int[T];
+			counts = new int[T];
+			pos = new int[T];
+			Arrays.fill(pos, -1);
+		}
+
+		/**
+		 * Set to all-zero counts
+		 */
+		public void clear()
+		{
+			for(int k = 0; k < nnz; k++)
+				pos[topics[k]] = -1;
+			nnz = 0;
+		}
+
+		/**
+		 * Set to the counts of row d of nd
+		 *
+		 * @param nd
+		 * @param d
+		 */
+		public void load(TopicCounts nd, int d)
+		{
+			clear();
+			nnz = nd.nonZeros(d, topics, counts);
+			for(int k = 0; k < nnz; k++)
+				pos[topics[k]] = k;
+		}
+
+		/**
+		 * Add update to the count of topic t
+		 *
+		 * @param t
+		 * @param update
+		 */
+		public void add(int t, int update)
+		{
+			int k = pos[t];
+			if(k < 0)
+			{
+				// New nonzero topic
+				assert(update > 0);
+				k = nnz++;
+				topics[k] = t;
+				counts[k] = 0;
+				pos[t] = k;
+			}
+			counts[k] += update;
+			assert(counts[k] >= 0);
+			if(counts[k] == 0)
+			{
+				// Move the last entry into the hole
+				nnz--;
+				topics[k] = topics[nnz];
+				counts[k] = counts[nnz];
+				pos[topics[k]] = k;
+				pos[t] = -1;
+			}
+		}
+
+		/**
+		 * Count of topic t
+		 */
+		public int get(int t)
+		{
+			int k = pos[t];
+			return (k < 0) ? 0 : counts[k];
+		}
+	}
+}
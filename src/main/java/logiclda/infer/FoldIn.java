@@ -0,0 +1,352 @@
+package logiclda.infer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logiclda.FileUtil;
+import logiclda.MiscUtil;
+import logiclda.RandomStream;
+import logiclda.XoshiroRandom;
+
+/**
+ *
+ * Long-lived fold-in inference of theta for new documents, with
+ * topic-word phi fixed (as in CollapsedGibbs.fixedPhiSample, but one
+ * document at a time instead of over a whole Corpus)
+ *
+ * Each document gets online initialization followed by numsamp Gibbs
+ * sweeps, and theta is the mean of (nd + alpha) / (doclen + alphasum)
+ * over the second half of the sweeps.  Tokens are sampled with
+ * FixedPhi (cost per token is the number of nonzero topics in the
+ * document plus an alias table draw).
+ *
+ * Safe to call from any number of threads.  A batch of documents is
+ * split into chunks which run on a fixed pool of worker threads; each
+ * chunk borrows one of the workers' scratch states (count and weight
+ * buffers, random number generator), so nothing is allocated per
+ * token or per document beyond the returned theta.  Generators are
+ * split from the seed given at construction, but which worker handles
+ * which document depends on scheduling, so results for a document are
+ * not reproducible across runs with more than one worker.
+ *
+ */
+public class FoldIn {
+
+	// Documents per task, at most (small documents are grouped so
+	// tasks are not dominated by handoff overhead)
+	private static final int MAXCHUNK = 256;
+
+	private int T;
+	private int W;
+	private int numsamp;
+
+	private FixedPhi phi;
+	private double[] alpha;
+	private double alphasum;
+
+	private ExecutorService pool;
+	private int numthreads;
+	private BlockingQueue<Worker> workers;
+
+	/**
+	 * Load %s.phi (trained, TxW) and %s.alpha (basefn)
+	 *
+	 * @param basefn
+	 * @param numsamp Gibbs sweeps per document
+	 * @param numthreads Worker threads
+	 * @param randseed Seed for random number generators
+	 * @return
+	 */
+	public static FoldIn fromFile(String basefn, int numsamp,
+			int numthreads, long randseed)
+	{
+		try
+		{
+			double[][] phi = FileUtil.readDoubleMatFile(
+					String.format("%s.phi", basefn)).toDoubleArray();
+			double[] alpha = FileUtil.readDoubleMatFile(
+					String.format("%s.alpha", basefn)).toDoubleArray()[0];
+			return new FoldIn(phi, alpha, numsamp, numthreads, randseed);
+		}
+		catch(Exception e)
+		{
+			System.out.println(String.format("Problem loading %s.phi/alpha",
+					basefn));
+			System.out.println(e.toString());
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * @param phi TxW topic P(w|z) matrix (copied)
+	 * @param alpha Document-topic hyperparameter (copied)
+	 * @param numsamp Gibbs sweeps per document
+	 * @param numthreads Worker threads
+	 * @param randseed Seed for random number generators
+	 */
+	public FoldIn(double[][] phi, double[] alpha, int numsamp,
+			int numthreads, long randseed)
+	{
+		this.T = phi.length;
+		this.W = phi[0].length;
+		assert(alpha.length == T);
+		this.numsamp = Math.max(1, numsamp);
+
+		this.phi = new FixedPhi(phi, alpha);
+		this.alpha = alpha.clone();
+		alphasum = 0;
+		for(double a : alpha)
+			alphasum += a;
+
+		this.numthreads = Math.max(1, numthreads);
+		pool = Executors.newFixedThreadPool(this.numthreads);
+		RandomStream rng = new XoshiroRandom(randseed);
+		workers = new ArrayBlockingQueue<Worker>(this.numthreads);
+		for(int k = 0; k < this.numthreads; k++)
+			workers.add(new Worker(rng.split()));
+	}
+
+	public int numTopics()
+	{
+		return T;
+	}
+
+	public int numWords()
+	{
+		return W;
+	}
+
+	/**
+	 * Infer theta for a batch of documents
+	 *
+	 * @param docs Word indices of each document
+	 * @return theta[d][t] for each document
+	 */
+	public double[][] infer(int[][] docs)
+	{
+		double[][] theta = new double[docs.length][];
+		int chunk = (docs.length + numthreads - 1) / numthreads;
+		chunk = Math.max(1, Math.min(MAXCHUNK, chunk));
+		if(chunk >= docs.length)
+		{
+			// Single chunk, run it here
+			new Chunk(docs, theta, 0, docs.length).call();
+			return theta;
+		}
+
+		List<Chunk> tasks = new ArrayList<Chunk>();
+		for(int start = 0; start < docs.length; start += chunk)
+			tasks.add(new Chunk(docs, theta, start,
+					Math.min(docs.length, start + chunk)));
+		try
+		{
+			for(Future<Object> f : pool.invokeAll(tasks))
+				f.get();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new RuntimeException(ee.getCause());
+		}
+		return theta;
+	}
+
+	/**
+	 * Infer theta for a single document (on the calling thread)
+	 *
+	 * @param doc Word indices
+	 * @return theta[t]
+	 */
+	public double[] infer(int[] doc)
+	{
+		return infer(new int[][] {doc})[0];
+	}
+
+	/**
+	 * Stop worker threads
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/**
+	 * Documents [start, end) of a batch
+	 */
+	private class Chunk implements Callable<Object>
+	{
+		int[][] docs;
+		double[][] theta;
+		int start;
+		int end;
+
+		Chunk(int[][] docs, double[][] theta, int start, int end)
+		{
+			this.docs = docs;
+			this.theta = theta;
+			this.start = start;
+			this.end = end;
+		}
+
+		public Object call()
+		{
+			Worker wk = borrow();
+			try
+			{
+				for(int d = start; d < end; d++)
+					theta[d] = wk.infer(docs[d]);
+			}
+			finally
+			{
+				workers.add(wk);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Take a worker state, waiting if all are in use
+	 */
+	private Worker borrow()
+	{
+		boolean interrupted = false;
+		while(true)
+		{
+			try
+			{
+				Worker wk = workers.take();
+				if(interrupted)
+					Thread.currentThread().interrupt();
+				return wk;
+			}
+			catch(InterruptedException ie)
+			{
+				interrupted = true;
+			}
+		}
+	}
+
+	/**
+	 * Per-worker scratch state
+	 */
+	private class Worker
+	{
+		RandomStream rng;
+		int[] z;
+		FixedPhi.DocTopics nd;
+		double[] tmp;
+
+		Worker(RandomStream rng)
+		{
+			this.rng = rng;
+			this.z = new int[64];
+			this.nd = new FixedPhi.DocTopics(T);
+			this.tmp = new double[T];
+		}
+
+		double[] infer(int[] doc)
+		{
+			for(int w : doc)
+				if(w < 0 || w >= W)
+					throw new IllegalArgumentException(String.format(
+							"Word index %d out of range (W = %d)", w, W));
+			if(z.length < doc.length)
+				z = new int[Math.max(doc.length, 2 * z.length)];
+			nd.clear();
+
+			double[] theta = new double[T];
+			int burnin = numsamp / 2;
+			for(int si = -1; si < numsamp; si++)
+			{
+				// (si = -1 is the online initialization)
+				for(int i = 0; i < doc.length; i++)
+				{
+					if(si >= 0)
+						nd.add(z[i], -1);
+					z[i] = phi.sample(rng, doc[i], nd, tmp);
+					nd.add(z[i], 1);
+				}
+				if(si >= burnin)
+					for(int k = 0; k < nd.nnz; k++)
+						theta[nd.topics[k]] += nd.counts[k];
+			}
+
+			// Average (doclen + alphasum is the same for every sweep)
+			int numavg = numsamp - burnin;
+			double norm = numavg * (doc.length + alphasum);
+			for(int t = 0; t < T; t++)
+				theta[t] = (theta[t] + numavg * alpha[t]) / norm;
+			return theta;
+		}
+	}
+
+	/**
+	 * Fold in documents read from stdin (one per line, as word
+	 * indices), writing theta (one line per document) to stdout
+	 * and throughput to stderr
+	 *
+	 * Usage: FoldIn basefn numsamp numthreads randseed [batchsize]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String basefn = args[0];
+		int numsamp = Integer.parseInt(args[1]);
+		int numthreads = Integer.parseInt(args[2]);
+		long randseed = Long.parseLong(args[3]);
+		int batchsize = (args.length > 4) ? Integer.parseInt(args[4]) : 1000;
+
+		FoldIn fi = FoldIn.fromFile(basefn, numsamp, numthreads, randseed);
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		List<int[]> batch = new ArrayList<int[]>();
+		long numdocs = 0;
+		long elapsed = 0;
+		String curLine = in.readLine();
+		while(curLine != null || batch.size() > 0)
+		{
+			if(curLine != null)
+			{
+				batch.add(MiscUtil.intListUnbox(FileUtil.parseIntLine(curLine,
+						new Vector<Integer>())));
+				curLine = in.readLine();
+			}
+			if(batch.size() == batchsize || (curLine == null &&
+					batch.size() > 0))
+			{
+				long t0 = System.nanoTime();
+				double[][] theta = fi.infer(batch.toArray(new int[0][]));
+				elapsed += System.nanoTime() - t0;
+				numdocs += batch.size();
+				batch.clear();
+
+				StringBuilder out = new StringBuilder();
+				for(double[] row : theta)
+				{
+					for(int t = 0; t < row.length; t++)
+						out.append((t > 0) ? " " : "").append(row[t]);
+					out.append('\n');
+				}
+				System.out.print(out);
+			}
+		}
+		System.out.flush();
+		fi.shutdown();
+		System.err.println(String.format("%d documents, %.0f documents/sec",
+				numdocs, numdocs / Math.max(elapsed / 1e9, 1e-9)));
+	}
+}
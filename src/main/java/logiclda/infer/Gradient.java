@@ -1,25 +1,270 @@
 package logiclda.infer;
 
+import java.util.Arrays;
+
 /**
  * Gradient over topic assignments, to be passed to RelaxedSample.emdaStep()
- * 
+ *
+ * This is a reusable buffer: LogicRule.randomGradient() overwrites it
+ * on every call, and storage only grows (to the largest gradient seen),
+ * so steady-state SGD does not allocate.  Each entry is the z-gradient
+ * wrt a single index, stored either as a dense T-vector or as
+ * (topic, value) pairs for its nonzero topics only.
+ *
  * @author david
  */
 public class Gradient {
 
-	public double[][] gradients;
+	// nnz of an entry stored as a dense T-vector
+	public static final int DENSE = -1;
+
+	private int T;
+
+	// Number of entries in use
+	public int size;
+
+	// Entry k is the z-gradient wrt indices[k]: values[k][j] for topic
+	// topics[k][j], j < nnz[k] (or values[k][t] for every t if DENSE)
 	public int[] indices;
+	public int[] nnz;
+	public int[][] topics;
+	public double[][] values;
 	
+	// sumByIndex() scratch: (index, entry) sort keys, and the position 
+	// of each topic in the merged entry (-1 if not there yet)
+	private long[] keys;
+	private int[] pos;
+
+	/**
+	 * Empty gradient for T topics
+	 *
+	 * @param T
+	 */
+	public Gradient(int T)
+	{
+		this.T = T;
+		this.size = 0;
+		this.indices = new int[0];
+		this.nnz = new int[0];
+		this.topics = new int[0][];
+		this.values = new double[0][];
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Add a dense entry for index idx
+	 *
+	 * @param idx
+	 * @return T-vector to fill in (every entry must be set)
+	 */
+	public double[] addDense(int idx)
+	{
+		int k = grow();
+		indices[k] = idx;
+		nnz[k] = DENSE;
+		return values[k];
+	}
+
+	/**
+	 * Add an (empty) sparse entry for index idx, to be filled in with set()
+	 *
+	 * @param idx
+	 * @return Entry number
+	 */
+	public int addSparse(int idx)
+	{
+		int k = grow();
+		indices[k] = idx;
+		nnz[k] = 0;
+		return k;
+	}
+
+	/**
+	 * Append nonzero topic t to sparse entry k
+	 * (each topic at most once per entry)
+	 *
+	 * @param k
+	 * @param t
+	 * @param val
+	 */
+	public void set(int k, int t, double val)
+	{
+		assert(nnz[k] != DENSE && nnz[k] < T);
+		topics[k][nnz[k]] = t;
+		values[k][nnz[k]] = val;
+		nnz[k]++;
+	}
+
+	public int numTopics()
+	{
+		return T;
+	}
+	
+	/**
+	 * Append copies of all entries of g
+	 * 
+	 * @param g
+	 */
+	public void append(Gradient g)
+	{
+		assert(g != this && g.T == T);
+		for(int j = 0; j < g.size; j++)
+		{
+			if(g.nnz[j] == DENSE)
+				System.arraycopy(g.values[j], 0, addDense(g.indices[j]), 0, T);
+			else
+			{
+				int k = addSparse(g.indices[j]);
+				System.arraycopy(g.topics[j], 0, topics[k], 0, g.nnz[j]);
+				System.arraycopy(g.values[j], 0, values[k], 0, g.nnz[j]);
+				nnz[k] = g.nnz[j];
+			}
+		}
+	}
+	
+	/**
+	 * Set to the entries of src, summing entries for the same index 
+	 * (one entry per index, in increasing index order; sparse unless 
+	 * one of the summed entries is dense)
+	 * 
+	 * @param src
+	 */
+	public void sumByIndex(Gradient src)
+	{
+		assert(src != this && src.T == T);
+		clear();
+		if(keys == null || keys.length < src.size)
+			keys = new long[Math.max(src.size, 2 * src.indices.length)];
+		if(pos == null)
+		{
+			pos = new int[T];
+			Arrays.fill(pos, -1);
+		}
+		
+		// Sort entries by index (then by entry number)
+		for(int j = 0; j < src.size; j++)
+			keys[j] = ((long) src.indices[j] << 32) | j;
+		sortKeys(keys, src.size);
+		
+		int start = 0;
+		while(start < src.size)
+		{
+			// Find the entries for this index
+			int idx = (int) (keys[start] >>> 32);
+			int end = start;
+			boolean dense = false;
+			while(end < src.size && (int) (keys[end] >>> 32) == idx)
+			{
+				dense = dense || (src.nnz[(int) keys[end]] == DENSE);
+				end++;
+			}
+			
+			if(dense)
+			{
+				double[] row = addDense(idx);
+				Arrays.fill(row, 0);
+				for(int r = start; r < end; r++)
+				{
+					int j = (int) keys[r];
+					if(src.nnz[j] == DENSE)
+						for(int t = 0; t < T; t++)
+							row[t] += src.values[j][t];
+					else
+						for(int m = 0; m < src.nnz[j]; m++)
+							row[src.topics[j][m]] += src.values[j][m];
+				}
+			}
+			else
+			{
+				int k = addSparse(idx);
+				for(int r = start; r < end; r++)
+				{
+					int j = (int) keys[r];
+					for(int m = 0; m < src.nnz[j]; m++)
+					{
+						int t = src.topics[j][m];
+						if(pos[t] < 0)
+						{
+							pos[t] = nnz[k];
+							set(k, t, src.values[j][m]);
+						}
+						else
+							values[k][pos[t]] += src.values[j][m];
+					}
+				}
+				for(int m = 0; m < nnz[k]; m++)
+					pos[topics[k][m]] = -1;
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Sort a[0..n) in place
+	 * (heapsort, since Arrays.sort may allocate a work array)
+	 *
+	 * @param a
+	 * @param n
+	 */
+	private static void sortKeys(long[] a, int n)
+	{
+		for(int k = n / 2 - 1; k >= 0; k--)
+			siftDown(a, k, n);
+		for(int end = n - 1; end > 0; end--)
+		{
+			long tmp = a[0];
+			a[0] = a[end];
+			a[end] = tmp;
+			siftDown(a, 0, end);
+		}
+	}
+
+	/**
+	 * Restore the max-heap property of a[0..n) below position k
+	 */
+	private static void siftDown(long[] a, int k, int n)
+	{
+		long val = a[k];
+		while(2 * k + 1 < n)
+		{
+			int child = 2 * k + 1;
+			if(child + 1 < n && a[child + 1] > a[child])
+				child++;
+			if(val >= a[child])
+				break;
+			a[k] = a[child];
+			k = child;
+		}
+		a[k] = val;
+	}
+
 	/**
-	 * gradients[i] is z-gradient wrt indices[i]
-	 *   
-	 * @param gradients
-	 * @param indices
+	 * Make room for one more entry
+	 *
+	 * @return Number of the new entry
 	 */
-	public Gradient(double[][] gradients, int[] indices)
+	private int grow()
 	{
-		assert(gradients.length == indices.length);
-		this.gradients = gradients;
-		this.indices = indices;
+		if(size == indices.length)
+		{
+			int cap = Math.max(2, 2 * size);
+			indices = Arrays.copyOf(indices, cap);
+			nnz = Arrays.copyOf(nnz, cap);
+			topics = Arrays.copyOf(topics, cap);
+			values = Arrays.copyOf(values, cap);
+			for(int k = size; k < cap; k++)
+			{
+				topics[k] = new int[T];
+				values[k] = new double[T];
+			}
+		}
+		return size++;
 	}
 }
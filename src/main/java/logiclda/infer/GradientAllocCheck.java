@@ -0,0 +1,115 @@
+package logiclda.infer;
+
+import java.lang.management.ManagementFactory;
+
+import logiclda.Corpus;
+import logiclda.LDAParameters;
+import logiclda.LogicLDA;
+import logiclda.rules.LogicRule;
+
+/**
+ * Check that steady-state mirror descent steps do not allocate
+ *
+ * Usage: GradientAllocCheck basefn randseed [numiter] [batch]
+ * (default 1000000 and 16)
+ *
+ * Loads the corpus, parameters and %s.rules (plus the LDA pseudo-rule),
+ * then for each step size policy, times (after a warmup) numiter
+ * randomGradient() + emdaStep() calls for each rule, and numiter
+ * groundings in mini-batches of batch (MirrorDescent.sampleBatch()
+ * + emdaStep()), measuring the bytes allocated by this thread.
+ * Exits with status 1 if anything allocates.
+ */
+public class GradientAllocCheck {
+
+	// Allocation by the measurement itself, tolerated per check
+	private static final long SLACK = 1024;
+
+	private static com.sun.management.ThreadMXBean mx =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception
+	{
+		String basefn = args[0];
+		int randseed = Integer.parseInt(args[1]);
+		int numiter = (args.length > 2) ? Integer.parseInt(args[2]) : 1000000;
+		int batch = (args.length > 3) ? Integer.parseInt(args[3]) : 16;
+		int warmup = Math.min(numiter, 100000);
+
+		LDAParameters p = new LDAParameters(basefn, randseed);
+		Corpus c = new Corpus(basefn);
+		MirrorDescent rs = LogicLDA.constructRuleSet(basefn, c, p.T,
+				randseed, true);
+		DiscreteSample s = CollapsedGibbs.doGibbs(c, p, 1);
+		RelaxedSample relax = new RelaxedSample(c, p, s);
+		Gradient grad = new Gradient(p.T);
+		Gradient accum = new Gradient(p.T);
+		Gradient bgrad = new Gradient(p.T);
+
+		boolean ok = true;
+		for(StepSizeType st : StepSizeType.values())
+		{
+			// (default runSGD schedule for numiter inner steps)
+			StepSizePolicy policy = StepSizePolicy.create(st, c.N,
+					Math.sqrt(numiter), numiter);
+			for(LogicRule lr : rs.rules)
+			{
+				// Warmup (also grows grad to its final size)
+				for(int n = 0; n < warmup; n++)
+				{
+					lr.randomGradient(relax, p.rng, grad);
+					relax.emdaStep(grad, policy, n);
+				}
+
+				long before = allocated();
+				for(int n = 0; n < numiter; n++)
+				{
+					lr.randomGradient(relax, p.rng, grad);
+					relax.emdaStep(grad, policy, n);
+				}
+				ok = report(st, lr.getClass().getSimpleName(),
+						allocated() - before, numiter) && ok;
+			}
+
+			// Mini-batches over all rules
+			for(int n = 0; n < warmup; n += batch)
+			{
+				rs.sampleBatch(relax, p.rng, batch, grad, accum, bgrad);
+				relax.emdaStep(bgrad, policy, n);
+			}
+
+			long before = allocated();
+			for(int n = 0; n < numiter; n += batch)
+			{
+				rs.sampleBatch(relax, p.rng, batch, grad, accum, bgrad);
+				relax.emdaStep(bgrad, policy, n);
+			}
+			ok = report(st, String.format("batch of %d", batch),
+					allocated() - before, numiter) && ok;
+		}
+		if(!ok)
+			System.exit(1);
+	}
+
+	/**
+	 * Bytes allocated by this thread so far
+	 */
+	private static long allocated()
+	{
+		return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Print the result of one check
+	 *
+	 * @return false if it allocated
+	 */
+	private static boolean report(StepSizeType st, String what, long bytes,
+			int numiter)
+	{
+		boolean allocates = bytes > SLACK;
+		System.out.println(String.format("%s %s %s: %d bytes in %d steps",
+				allocates ? "FAIL" : "ok  ", st, what, bytes, numiter));
+		return !allocates;
+	}
+}
@@ -5,6 +5,7 @@ package logiclda.infer;
 import java.util.*;
 import java.io.*;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.LDAParameters;
 import logiclda.MiscUtil;
@@ -31,7 +32,7 @@ public class GroundRules
 	private Set<Integer> logicidx;
 	private List<GroundableRule> rules;
 	private int[] unsatCounts;
-	public Random rng;
+	public RandomStream rng;
 	
 	/**
 	 * Cast List of LogicRule to GroundableRule
@@ -51,7 +52,7 @@ public class GroundRules
 	 * Each LogicRule has already been initialized with *.applyEvidence()
 	 * 
 	 */
-	public GroundRules(List<GroundableRule> lstRules, int[] z, Random rng, int T)
+	public GroundRules(List<GroundableRule> lstRules, int[] z, RandomStream rng, int T)
 	{
 		// Ground each rule 
 		this.rules = lstRules;
@@ -124,6 +125,21 @@ public class GroundRules
 		return weight;
 	}
 	
+	/**
+	 * Calc global obj fcn impact of every possible value of z[idx], 
+	 * in a single pass over the groundings involving idx
+	 * 
+	 * @param z
+	 * @param idx
+	 * @param weights T-vector, overwritten with the impact of z[idx] = t
+	 */
+	public void evalAllAssign(int[] z, int idx, double[] weights)
+	{
+		Arrays.fill(weights, 0);
+		for(GroundableRule gr : this.rules)
+			gr.evalAllAssign(z, idx, weights);
+	}
+	
 	/**
 	 * Given Grounding g, return [idx, newz] for best greedy move 
 	 * 
@@ -136,23 +152,19 @@ public class GroundRules
 		int bestnewz = -1;
 		double bestweight = Double.NEGATIVE_INFINITY;
 		
+		double[] weights = new double[T];
 		for(int idx : g.values)
 		{
-			// Save old value
-			int oldz = z[idx];
+			this.evalAllAssign(z, idx, weights);
 			for(int newz = 0; newz < T; newz++)
 			{
-				z[idx] = newz;
-				double newweight = this.evalAssign(z, idx);
-				if(newweight > bestweight)
+				if(weights[newz] > bestweight)
 				{
-					bestweight = newweight;
+					bestweight = weights[newz];
 					bestidx = idx;
 					bestnewz = newz; 
 				}
 			}
-			// Restore old value before trying next index
-			z[idx] = oldz;
 		}
 		
 		// Return the best index and newz value
@@ -0,0 +1,189 @@
+package logiclda.infer;
+
+import logiclda.RandomStream;
+import logiclda.XoshiroRandom;
+
+/**
+ * Micro-benchmark of the TopicKernel implementations on synthetic
+ * counts (no corpus needed)
+ *
+ * Usage: KernelBench [T1 T2 ...]   (default 100 500 2000)
+ *
+ * Reports ns per call of a Gibbs token update (weights + sample) and
+ * of a mirror descent step on a z-row and its expected counts, with 
+ * the gradient as a dense T-vector (emdaDense) and as its nonzero 
+ * entries only (emdaSparse), for each kernel.
+ *
+ * First checks that emdaSparse agrees with emdaDense, including on a
+ * saturated row a step removes almost all of the mass from (exits with
+ * status 1 if not).
+ */
+public class KernelBench {
+
+	// Calls per timing run (scaled down for large T)
+	private static final long WORK = 200000000L;
+
+	public static void main(String[] args)
+	{
+		int[] Ts = {100, 500, 2000};
+		if(args.length > 0)
+		{
+			Ts = new int[args.length];
+			for(int k = 0; k < args.length; k++)
+				Ts[k] = Integer.parseInt(args[k]);
+		}
+
+		for(int T : Ts)
+		{
+			System.out.println(String.format("T = %d", T));
+			double[] base = new double[3];
+			for(KernelType kt : KernelType.values())
+			{
+				if(!check(TopicKernel.create(kt, T), T))
+				{
+					System.out.println(String.format("  %-8s emdaSparse " +
+							"does not match emdaDense", kt.toString()));
+					System.exit(1);
+				}
+				// Run twice, the first pass is JIT warmup
+				double[] res = null;
+				for(int rep = 0; rep < 2; rep++)
+					res = run(TopicKernel.create(kt, T), T);
+				if(kt == KernelType.SCALAR)
+					base = res;
+				System.out.println(String.format("  %-8s gibbs %8.1f ns " +
+						"(x%.2f)   emda %8.1f ns (x%.2f)   sparse emda " +
+						"%8.1f ns (x%.2f)", kt.toString(),
+						res[0], base[0] / res[0], res[1], base[1] / res[1],
+						res[2], base[2] / res[2]));
+			}
+		}
+	}
+
+	/**
+	 * Compare a sparse and a dense mirror descent step on a saturated 
+	 * row (all but 1e-12 of the mass on one topic, whose gradient is 
+	 * large and negative), a one-hot row and a uniform row
+	 *
+	 * @return true if both give the same normalized row and expected 
+	 * count changes
+	 */
+	private static boolean check(TopicKernel kernel, int T)
+	{
+		double[][] rows = new double[3][T];
+		for(int t = 1; t < T; t++)
+			rows[0][t] = 1e-12;
+		rows[0][0] = 1 - (T - 1) * 1e-12;
+		rows[1][0] = 1;
+		for(int t = 0; t < T; t++)
+			rows[2][t] = 1.0 / T;
+		int[] topics = {0, T / 2};
+		double[] gradvals = {-100, 5};
+		double[] grad = new double[T];
+		grad[topics[0]] = gradvals[0];
+		grad[topics[1]] = gradvals[1];
+
+		double[] buf = new double[T];
+		for(double[] row : rows)
+		{
+			double[] zs = row.clone();
+			double[] nws = new double[T];
+			double[] nds = new double[T];
+			kernel.emdaSparse(zs, topics, gradvals, 2, 1.0, buf, nws, nds);
+			double[] zd = row.clone();
+			double[] nwd = new double[T];
+			double[] ndd = new double[T];
+			kernel.emdaDense(zd, grad, 1.0, buf, nwd, ndd);
+
+			double sum = 0;
+			for(int t = 0; t < T; t++)
+			{
+				if(!(zs[t] >= 0 && zs[t] <= 1) ||
+						Math.abs(zs[t] - zd[t]) > 1e-12 ||
+						Math.abs(nws[t] - (zs[t] - row[t])) > 1e-12 ||
+						Math.abs(nds[t] - nwd[t]) > 1e-12)
+					return false;
+				sum += zs[t];
+			}
+			if(Math.abs(sum - 1) > 1e-9)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Time one kernel
+	 *
+	 * @return ns per Gibbs token update, ns per dense and sparse 
+	 * mirror descent step
+	 */
+	private static double[] run(TopicKernel kernel, int T)
+	{
+		RandomStream rng = new XoshiroRandom(194582);
+		int rows = 64;
+		int calls = (int) (WORK / T / 10);
+
+		// Sparse-ish word counts, a few topics per document,
+		// mostly zero gradients (as from a rule grounding)
+		int[][] nw = new int[rows][T];
+		int[][] nd = new int[rows][T];
+		double[][] grad = new double[rows][T];
+		int[][] gradtopics = new int[rows][1];
+		double[][] gradvals = new double[rows][1];
+		for(int r = 0; r < rows; r++)
+		{
+			for(int k = 0; k < 10; k++)
+			{
+				nw[r][rng.nextInt(T)] += 1 + rng.nextInt(50);
+				nd[r][rng.nextInt(T)] += 1 + rng.nextInt(20);
+			}
+			gradtopics[r][0] = rng.nextInt(T);
+			gradvals[r][0] = rng.nextDouble() - 0.5;
+			grad[r][gradtopics[r][0]] = gradvals[r][0];
+		}
+		long[] colsums = new long[T];
+		double[] beta = new double[T];
+		double[] betasums = new double[T];
+		double[] alpha = new double[T];
+		for(int t = 0; t < T; t++)
+		{
+			colsums[t] = 1000 + rng.nextInt(100000);
+			beta[t] = 0.01;
+			betasums[t] = 0.01 * 10000;
+			alpha[t] = 50.0 / T;
+		}
+		double[] vals = new double[T];
+		double[] z = new double[T];
+		double[] enw = new double[T];
+		double[] end = new double[T];
+		for(int t = 0; t < T; t++)
+			z[t] = 1.0 / T;
+
+		long check = 0;
+		long t0 = System.nanoTime();
+		for(int n = 0; n < calls; n++)
+		{
+			int r = n % rows;
+			double normsum = kernel.weights(nw[r], nd[r], colsums,
+					beta, betasums, alpha, vals);
+			check += kernel.sample(rng, vals, normsum);
+		}
+		long t1 = System.nanoTime();
+		for(int n = 0; n < calls; n++)
+			kernel.emdaDense(z, grad[n % rows], 0.01, vals, enw, end);
+		long t2 = System.nanoTime();
+		for(int n = 0; n < calls; n++)
+		{
+			int r = n % rows;
+			kernel.emdaSparse(z, gradtopics[r], gradvals[r], 1, 0.01, vals, 
+					enw, end);
+		}
+		long t3 = System.nanoTime();
+
+		// (keep the results live)
+		if(check == -1 || Double.isNaN(z[0] + enw[0] + end[0]))
+			System.out.println(check);
+		return new double[] {(t1 - t0) / (double) calls,
+				(t2 - t1) / (double) calls, (t3 - t2) / (double) calls};
+	}
+}
@@ -0,0 +1,22 @@
+package logiclda.infer;
+
+/**
+ * Implementations of the per-topic inner loops (TopicKernel)
+ */
+public enum KernelType 
+{
+	SCALAR("scalar"), // straightforward loops (ScalarKernel)
+	BLOCKED("blocked"); // unrolled loops, blocked sampling (BlockedKernel)
+	
+	private final String kernelName;
+	
+	KernelType(String name)
+	{
+		this.kernelName = name;		
+	}
+		
+	public boolean matchesName(String str)
+	{
+		return this.kernelName.equalsIgnoreCase(str);
+	}
+}
@@ -1,8 +1,8 @@
 package logiclda.infer;
 
 import java.util.List;
-import java.util.Random;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.rules.GroundableRule;
 import logiclda.rules.Grounding;
@@ -11,14 +11,14 @@ public class LDAGroundRules extends GroundRules
 {
 	private List<GroundableRule> rules;
 	private int[] unsatCounts;
-	public Random rng;
+	public RandomStream rng;
 		
 	/**
 	 * Each LogicRule has already been initialized with *.applyEvidence()
 	 * 
 	 */
 	public LDAGroundRules(List<GroundableRule> lstRules, int[] z, 
-			Random rng, int T)
+			RandomStream rng, int T)
 	{
 		super(lstRules, z, rng, T);
 	}
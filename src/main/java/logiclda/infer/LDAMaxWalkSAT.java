@@ -3,7 +3,6 @@ package logiclda.infer;
 
 
 import java.util.List;
-import java.util.Random;
 import java.util.Map;
 import java.util.ArrayList;
 
@@ -68,7 +67,8 @@ public class LDAMaxWalkSAT {
 		//			
 		LDAMaxWalkSAT.runLDAMWS(c, p, rules, numiter, numiter, prand, s);
 				
-		DiscreteSample finalz = new DiscreteSample(c.N, p.T, p.W, c.D, s.z, c);
+		DiscreteSample finalz = new DiscreteSample(c.N, p.T, p.W, c.D, s.z, c, 
+				p.opts);
 						
 		// Write out results
 		//
@@ -93,6 +93,9 @@ public class LDAMaxWalkSAT {
 	public static DiscreteSample argmaxZ(Corpus c,  GroundRules gr, 
 			double[][] phi, double[][] theta, DiscreteSample s)	
 	{
+		// Transposed phi (the topics of a word are adjacent)
+		FixedPhi wordphi = new FixedPhi(phi);
+		
 		// Iterate over every position in the corpus
 		for(int i = 0; i < c.N; i++)
 		{
@@ -104,12 +107,16 @@ public class LDAMaxWalkSAT {
 			double bestval = Double.NEGATIVE_INFINITY;
 			int bestz = -1;
 			
-			for(int t = 0; t < phi.length; t++)
-				if(phi[t][c.w[i]] * theta[c.d[i]][t] > bestval)
+			double[] dtheta = theta[c.d[i]];
+			for(int t = 0; t < dtheta.length; t++)
+			{
+				double val = wordphi.get(c.w[i], t) * dtheta[t];
+				if(val > bestval)
 				{
-					bestval = phi[t][c.w[i]] * theta[c.d[i]][t];
+					bestval = val;
 					bestz = t;
 				}
+			}
 			
 			s.reassign(c, i, bestz);			
 		}
@@ -0,0 +1,216 @@
+package logiclda.infer;
+
+import java.util.Arrays;
+
+/**
+ * (Independent) rule contributions to the z-label of each corpus position,
+ * stored in compressed row-sparse form: for each position, a short list of
+ * topics (ascending) with summed rule weight and the precomputed
+ * multiplicative factor exp(weight).  Topics not listed have weight 0
+ * (factor 1).
+ *
+ * Built with LogicWeights.Builder, read-only afterwards (so it can be
+ * shared between sampling threads).
+ */
+public class LogicWeights {
+
+	// Entries for position i are rowstart[i], ..., rowstart[i+1] - 1
+	private int[] rowstart;
+	private int[] topics;
+	private double[] weights;
+	private double[] factors;
+
+	private LogicWeights(int[] rowstart, int[] topics, double[] weights)
+	{
+		this.rowstart = rowstart;
+		this.topics = topics;
+		this.weights = weights;
+		this.factors = new double[weights.length];
+		for(int k = 0; k < weights.length; k++)
+			factors[k] = Math.exp(weights[k]);
+	}
+
+	/**
+	 * Does any rule contribute to position i?
+	 */
+	public boolean hasWeights(int i)
+	{
+		return rowstart[i + 1] > rowstart[i];
+	}
+
+	/**
+	 * First entry index for position i
+	 */
+	public int start(int i)
+	{
+		return rowstart[i];
+	}
+
+	/**
+	 * One past the last entry index for position i
+	 */
+	public int end(int i)
+	{
+		return rowstart[i + 1];
+	}
+
+	public int topic(int k)
+	{
+		return topics[k];
+	}
+
+	public double weight(int k)
+	{
+		return weights[k];
+	}
+
+	public double factor(int k)
+	{
+		return factors[k];
+	}
+
+	/**
+	 * exp(weight) of topic t at position i
+	 */
+	public double factor(int i, int t)
+	{
+		int k = Arrays.binarySearch(topics, rowstart[i], rowstart[i + 1], t);
+		return (k >= 0) ? factors[k] : 1.0;
+	}
+
+	/**
+	 * Number of corpus positions
+	 */
+	public int numPositions()
+	{
+		return rowstart.length - 1;
+	}
+
+	/**
+	 * Total number of (position, topic) entries
+	 */
+	public int numEntries()
+	{
+		return topics.length;
+	}
+
+	/**
+	 * Multiply un-normalized topic probabilities vals for position i
+	 * by the logic factors, returning the new normalization sum
+	 *
+	 * @param i
+	 * @param vals
+	 * @param normsum Sum of vals before the update
+	 * @return
+	 */
+	public double applyFactors(int i, double[] vals, double normsum)
+	{
+		for(int k = rowstart[i]; k < rowstart[i + 1]; k++)
+		{
+			int t = topics[k];
+			normsum -= vals[t];
+			vals[t] *= factors[k];
+			normsum += vals[t];
+		}
+		return normsum;
+	}
+
+	/**
+	 * Accumulates (position, topic, weight) entries from rules,
+	 * duplicates are summed
+	 */
+	public static class Builder
+	{
+		private int N;
+		private int T;
+		private int size;
+		private int[] pos;
+		private int[] tops;
+		private double[] vals;
+
+		public Builder(int N, int T)
+		{
+			this.N = N;
+			this.T = T;
+			this.size = 0;
+			this.pos = new int[16];
+			this.tops = new int[16];
+			this.vals = new double[16];
+		}
+
+		/**
+		 * Add weight to topic t at position i (zero weights are ignored)
+		 *
+		 * @param i
+		 * @param t
+		 * @param weight
+		 */
+		public void add(int i, int t, double weight)
+		{
+			assert(i >= 0 && i < N && t >= 0 && t < T);
+			if(weight == 0)
+				return;
+			if(size == pos.length)
+			{
+				pos = Arrays.copyOf(pos, 2 * size);
+				tops = Arrays.copyOf(tops, 2 * size);
+				vals = Arrays.copyOf(vals, 2 * size);
+			}
+			pos[size] = i;
+			tops[size] = t;
+			vals[size] = weight;
+			size++;
+		}
+
+		public LogicWeights build()
+		{
+			// Bucket entries by position (counting sort)
+			int[] rowstart = new int[N + 1];
+			for(int k = 0; k < size; k++)
+				rowstart[pos[k] + 1]++;
+			for(int i = 0; i < N; i++)
+				rowstart[i + 1] += rowstart[i];
+			int[] fill = Arrays.copyOf(rowstart, N);
+			int[] sorttops = new int[size];
+			double[] sortvals = new double[size];
+			for(int k = 0; k < size; k++)
+			{
+				int dest = fill[pos[k]]++;
+				sorttops[dest] = tops[k];
+				sortvals[dest] = vals[k];
+			}
+
+			// Sort each position by topic, summing duplicate topics
+			int nnz = 0;
+			int[] newstart = new int[N + 1];
+			double[] rowvals = new double[T];
+			boolean[] seen = new boolean[T];
+			for(int i = 0; i < N; i++)
+			{
+				newstart[i] = nnz;
+				int first = nnz;
+				for(int k = rowstart[i]; k < rowstart[i + 1]; k++)
+				{
+					int t = sorttops[k];
+					if(!seen[t])
+					{
+						seen[t] = true;
+						sorttops[nnz++] = t;
+					}
+					rowvals[t] += sortvals[k];
+				}
+				Arrays.sort(sorttops, first, nnz);
+				for(int k = first; k < nnz; k++)
+				{
+					int t = sorttops[k];
+					sortvals[k] = rowvals[t];
+					rowvals[t] = 0;
+					seen[t] = false;
+				}
+			}
+			newstart[N] = nnz;
+			return new LogicWeights(newstart, Arrays.copyOf(sorttops, nnz),
+					Arrays.copyOf(sortvals, nnz));
+		}
+	}
+}
@@ -3,7 +3,6 @@ package logiclda.infer;
 
 
 import java.util.List;
-import java.util.Random;
 import java.util.Map;
 import java.util.ArrayList;
 
@@ -2,11 +2,18 @@ package logiclda.infer;
 
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.io.*;
 
+import logiclda.AliasTable;
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.LDAParameters;
-import logiclda.MiscUtil;
+import logiclda.rules.LDARule;
 import logiclda.rules.LogicRule;
 import logiclda.rules.SeedRule;
 import logiclda.rules.IndependentRule;
@@ -18,29 +25,31 @@ import org.ujmp.core.MatrixFactory;
 public class MirrorDescent 
 {
 
-	private Random rng;
-	private double[] ruleWeights;
-	private double ruleWeightSum;
+	private RandomStream rng;
+	// Rule sampling weights (O(1) rule selection per step)
+	private AliasTable ruleTable;
 	public LogicRule[] rules;
 	private double pullfactor;
 	
-	public MirrorDescent(List<LogicRule> lstRules, Random rng)
+	public MirrorDescent(List<LogicRule> lstRules, RandomStream rng)
 	{		
-		// Rule weights will be used for sampling
-		ruleWeightSum = 0;
-		Vector<Double> vecRuleWeights = new Vector<Double>();
-		for(LogicRule lr : lstRules)
-		{
-			double weight = lr.getTotalSamplingWeight();
-			ruleWeightSum += weight;
-			vecRuleWeights.add(weight);
-		}
-		ruleWeights = MiscUtil.doubleListUnbox(vecRuleWeights);
-		
 		// Save the actual rules and random number generator
 		this.rng = rng;
 		rules = new LogicRule[lstRules.size()];
 		rules = lstRules.toArray(rules);
+		
+		// Rule weights will be used for sampling
+		// (rules must have had evidence applied)
+		buildRuleTable();
+	}
+	
+	private void buildRuleTable()
+	{
+		double[] ruleWeights = new double[rules.length];
+		for(int r = 0; r < ruleWeights.length; r++)
+			ruleWeights[r] = rules[r].getTotalSamplingWeight();
+		ruleTable = new AliasTable(ruleWeights);
+		ruleTable.trim();
 	}
 
 	/**
@@ -65,6 +74,47 @@ public class MirrorDescent
 		return total;
 	}
 	
+	/**
+	 * Corpus indices whose relaxed z is touched by some (non-LDA) rule,
+	 * ie the rows a hybrid RelaxedSample needs to store
+	 * 
+	 * @param N Corpus length
+	 * @return
+	 */
+	public BitSet logicIndices(int N)
+	{
+		BitSet indices = new BitSet(N);
+		for(LogicRule lr : rules)
+			lr.markIndices(indices);
+		return indices;
+	}
+	
+	/**
+	 * Relaxed sample to start SGD from, initialized from s
+	 * 
+	 * With p.opts.hybridrelax, only the logicIndices rows are stored, 
+	 * and the LDA rule only samples gradients at those rows.
+	 * 
+	 * @param c
+	 * @param p
+	 * @param s
+	 * @return
+	 */
+	public RelaxedSample relaxedSample(Corpus c, LDAParameters p, 
+			DiscreteSample s)
+	{
+		if(!p.opts.hybridrelax)
+			return new RelaxedSample(c, p, s);
+		BitSet stored = logicIndices(c.N);
+		for(LogicRule lr : rules)
+		{
+			if(lr instanceof LDARule)
+				((LDARule) lr).restrictTo(stored);
+		}
+		buildRuleTable();
+		return new RelaxedSample(c, p, s, stored);
+	}
+	
 	/**
 	 * Get the z-label style weights for all IndependentRule 
 	 * (for use in Logic Collapsed Gibbs, etc)
@@ -73,33 +123,16 @@ public class MirrorDescent
 	 * @param T
 	 * @return
 	 */
-	public double[][] seedsToZL(int N, int T)
+	public LogicWeights seedsToZL(int N, int T)
 	{
-		double[][] retval = new double[N][]; // default to null
+		// Rules add their weights sparsely, summed by the builder
+		LogicWeights.Builder zl = new LogicWeights.Builder(N, T);
 		for(LogicRule lr : rules)	
 		{
 			if(lr instanceof IndependentRule)			
-			{
-				// Need to 'sparse-add' these double[][] 
-				double[][] ruleweights = ((IndependentRule) lr).toZLabel(N, T); 
-				for(int i = 0; i < N; i++)
-				{
-					if(ruleweights[i] != null && retval[i] != null)
-					{
-						// both non-null, need to add
-						for(int t = 0; t < ruleweights[i].length; t++)
-							retval[i][t] += ruleweights[i][t];
-					}
-					else if(ruleweights[i] != null)
-					{
-						// only ruleweights non-null, just copy over
-						retval[i] = ruleweights[i];
-					}
-					// ruleweights null so just continue
-				}
-			}
+				((IndependentRule) lr).addZLabel(zl, T); 
 		}
-		return retval;
+		return zl.build();
 	}
 	
 	/**
@@ -180,19 +213,50 @@ public class MirrorDescent
 		MirrorDescent rs = new MirrorDescent(rules, p.rng);
 		
 		// Init relaxed z-sample 
-		RelaxedSample relax = new RelaxedSample(c, p, s);						
+		RelaxedSample relax = rs.relaxedSample(c, p, s);
 						
 		// Do LogicLDA MAP inference via Stochastic Gradient Descent				
-		double stepa = Math.sqrt(numinner);
-		double stepb = (double) numinner;
-		relax = rs.doSGD(c, p, relax, numouter, numinner, stepa, stepb);
+		relax = rs.doSGD(c, p, relax, numouter, numinner);
 		
 		// Return final RelaxedSample
 		return relax;
 	}
 	
+	/**
+	 * Do stochastic gradient descent MAP inference with the step size 
+	 * schedule of p.opts (sgdstepa / sgdstepb, defaulting to 
+	 * sqrt(numinner) and numinner)
+	 * 
+	 * @param c
+	 * @param p
+	 * @param relax
+	 * @param numouter
+	 * @param numinner
+	 * @return
+	 */
+	public RelaxedSample doSGD(Corpus c, LDAParameters p,
+			RelaxedSample relax, int numouter, int numinner)
+	{
+		double stepa = (p.opts.sgdstepa > 0) ? p.opts.sgdstepa : 
+			Math.sqrt(numinner);
+		double stepb = (p.opts.sgdstepb > 0) ? p.opts.sgdstepb : 
+			(double) numinner;
+		return doSGD(c, p, relax, numouter, numinner, stepa, stepb);
+	}
+	
 	 /**
 	  * Do stochastic gradient descent MAP inference
+	  * (inner loop run by p.opts.sgdthreads threads, taking steps on 
+	  * mini-batches of p.opts.sgdbatch groundings)
+	  * 
+	  * A mini-batch sums the gradients of its groundings for each 
+	  * z-entry, then updates each entry once, in index order, with the 
+	  * step size of its first grounding (so about as far as that many 
+	  * single-grounding steps).  numinner counts groundings.
+	  * 
+	  * Step sizes come from the p.opts.stepsize policy (by default the 
+	  * schedule stepa / sqrt(stepb + n) at the n-th grounding of each 
+	  * outer loop).
 	  * 
 	  * @param c
 	  * @param p
@@ -208,28 +272,258 @@ public class MirrorDescent
 			int numouter, int numinner,
 			double stepa, double stepb)							
 	{
-		// Each outer loop, re-estimate phi/theta
-		for(int nout = 0; nout < numouter; nout++)
+		StepSizePolicy policy = StepSizePolicy.create(p.opts, c.N, 
+				stepa, stepb);
+		if(p.opts.sgdthreads > 1)
+			return doParallelSGD(c, p, relax, numouter, numinner, 
+					policy, p.opts.sgdthreads);
+		
+		// Gradient buffers (re-used by every step)
+		Gradient rGrad = new Gradient(p.T);
+		Gradient accum = new Gradient(p.T);
+		Gradient bGrad = new Gradient(p.T);
+		int batch = Math.max(1, p.opts.sgdbatch);
+		long elapsed = 0;
+		ExecutorService phipool = p.opts.pipelinephi ? 
+				Executors.newSingleThreadExecutor() : null;
+		long phielapsed = 0;
+		
+		try
 		{
-			System.out.println(String.format("Outer loop %d of %d (%d inner)", 
-					nout, numouter, numinner));
-			relax.updatePhiTheta(c, p);
-			// Each inner loop takes a single stochastic gradient step			
-			for(int nin = 0; nin < numinner; nin++)
+			// Each outer loop, re-estimate phi/theta
+			for(int nout = 0; nout < numouter; nout++)
 			{
-				double stepSize = stepa / Math.sqrt(stepb + nin);
-				// Randomly sample a rule
-				int chosen = MiscUtil.multSample(rng, 
-						ruleWeights, ruleWeightSum);
+				System.out.println(String.format("Outer loop %d of %d (%d inner)", 
+						nout, numouter, numinner));
+				long phistart = System.nanoTime();
+				reestimate(c, p, relax, nout, phipool);
+				phielapsed += System.nanoTime() - phistart;
+				// Each inner loop takes a single stochastic gradient step			
+				long start = System.nanoTime();
+				for(int nin = 0; nin < numinner; nin += batch)
+				{
+					if(batch > 1)
+					{
+						// Sample a mini-batch and take a combined EMDA step
+						sampleBatch(relax, rng, Math.min(batch, numinner - nin),
+								rGrad, accum, bGrad);
+						relax.emdaStep(bGrad, policy, nin);
+						continue;
+					}
+				
+					// Randomly sample a rule
+					int chosen = ruleTable.sample(rng);
 				
-				// Randomly sample a grounding and gradient
-				Gradient rGrad = rules[chosen].randomGradient(relax, rng);
+					// Randomly sample a grounding and gradient
+					rules[chosen].randomGradient(relax, rng, rGrad);
+				
+					// Take an EMDA step
+					relax.emdaStep(rGrad, policy, nin);
+				}			
+				elapsed += System.nanoTime() - start;
+			}				
+			long phistart = System.nanoTime();
+			relax.finishUpdatePhiTheta();
+			phielapsed += System.nanoTime() - phistart;
+		}
+		finally
+		{
+			if(phipool != null)
+				phipool.shutdown();
+		}
+		sgdReport(relax, (long) numouter * numinner, elapsed, phielapsed, 1);
+		return relax;
+	}
+	
+	/**
+	 * Re-estimate phi/theta at the start of outer loop nout
+	 * 
+	 * If pipelined (phipool not null), estimates are calculated in the 
+	 * background during an outer loop, from the expected counts at its 
+	 * start, and swapped in at the start of the next (or, for the last 
+	 * outer loop, by finishUpdatePhiTheta() once it is done, so the final 
+	 * phi/theta are as up to date as without pipelining).  The inner loop 
+	 * then never waits for them (unless they take longer than it does), 
+	 * but runs on estimates one outer loop older than otherwise.
+	 * 
+	 * @param phipool Single background thread, or null to re-estimate 
+	 * directly
+	 */
+	private void reestimate(Corpus c, LDAParameters p, RelaxedSample relax,
+			int nout, ExecutorService phipool)
+	{
+		if(phipool == null || nout == 0)
+		{
+			// (pipelining from the first counts would only recalculate
+			// the estimates we start from)
+			relax.updatePhiTheta(c, p);
+			return;
+		}
+		relax.finishUpdatePhiTheta();
+		relax.beginUpdatePhiTheta(p, phipool);
+	}
+	
+	/**
+	 * Sample numground groundings (of randomly chosen rules) and sum 
+	 * their gradients for each z-entry
+	 * 
+	 * @param relax
+	 * @param rng
+	 * @param numground
+	 * @param single Scratch for a single grounding's gradient
+	 * @param accum Scratch for all of the gradients
+	 * @param grad Overwritten with the summed gradient
+	 */
+	void sampleBatch(RelaxedSample relax, RandomStream rng, 
+			int numground, Gradient single, Gradient accum, Gradient grad)
+	{
+		accum.clear();
+		for(int b = 0; b < numground; b++)
+		{
+			rules[ruleTable.sample(rng)].randomGradient(relax, rng, single);
+			accum.append(single);
+		}
+		grad.sumByIndex(accum);
+	}
+	
+	/**
+	 * Hogwild-style parallel SGD: within each outer loop, numthreads
+	 * threads take inner steps concurrently, each with its own random 
+	 * number generator (split from this.rng) and step counter.  Steps 
+	 * touch only a few z-entries, which are updated under striped locks 
+	 * (see RelaxedSample.emdaStepConcurrent);
+	 * gradients are calculated without locking.  Results depend on 
+	 * thread timing, so are not reproducible.
+	 * 
+	 * @param numthreads
+	 * @return
+	 */
+	private RelaxedSample doParallelSGD(Corpus c, LDAParameters p,
+			RelaxedSample relax, int numouter, int numinner,
+			StepSizePolicy policy, int numthreads)
+	{
+		List<SGDWorker> workers = new ArrayList<SGDWorker>();
+		for(int k = 0; k < numthreads; k++)
+			workers.add(new SGDWorker(k, numthreads, relax, p.T, 
+					rng.split(), policy, Math.max(1, p.opts.sgdbatch)));
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+		long elapsed = 0;
+		ExecutorService phipool = p.opts.pipelinephi ? 
+				Executors.newSingleThreadExecutor() : null;
+		long phielapsed = 0;
+		try
+		{
+			for(int nout = 0; nout < numouter; nout++)
+			{
+				System.out.println(String.format("Outer loop %d of %d " +
+						"(%d inner, %d threads)", nout, numouter, numinner, 
+						numthreads));
+				long phistart = System.nanoTime();
+				reestimate(c, p, relax, nout, phipool);
+				phielapsed += System.nanoTime() - phistart;
 				
-				// Take an EMDA step
-				relax.emdaStep(rGrad, stepSize);
-			}			
-		}				
+				// Split the inner steps between the threads
+				for(SGDWorker wk : workers)
+					wk.numsteps = numinner / numthreads + 
+						((wk.id < numinner % numthreads) ? 1 : 0);
+				long start = System.nanoTime();
+				for(Future<Object> f : pool.invokeAll(workers))
+					f.get();
+				elapsed += System.nanoTime() - start;
+			}
+			long phistart = System.nanoTime();
+			relax.finishUpdatePhiTheta();
+			phielapsed += System.nanoTime() - phistart;
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new RuntimeException(ee.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+			if(phipool != null)
+				phipool.shutdown();
+		}
+		sgdReport(relax, (long) numouter * numinner, elapsed, phielapsed, 
+				numthreads);
 		return relax;
 	}
+	
+	/**
+	 * Print inner loop throughput, time spent waiting for phi/theta 
+	 * re-estimation and the satisfied logic weight of the argmax z
+	 */
+	private void sgdReport(RelaxedSample relax, long numsteps, long elapsed,
+			long phielapsed, int numthreads)
+	{
+		System.out.println(String.format("SGD: %d steps, %.0f steps/sec " +
+				"(%d threads), satisfied weight %.1f of %.1f", numsteps, 
+				numsteps / Math.max(elapsed / 1e9, 1e-9), numthreads, 
+				satWeight(relax.getZ()), totalWeight()));
+		System.out.println(String.format("SGD: %.3f sec re-estimating " +
+				"phi/theta", phielapsed / 1e9));
+	}
+	
+	/**
+	 * Hogwild SGD thread: takes numsteps inner steps (groundings) per 
+	 * outer loop
+	 */
+	private class SGDWorker implements Callable<Object>
+	{
+		int id;
+		int numthreads;
+		RelaxedSample relax;
+		Gradient grad;
+		Gradient accum;
+		Gradient bGrad;
+		double[] buf;
+		RandomStream rng;
+		StepSizePolicy policy;
+		int batch;
+		int numsteps;
+		
+		SGDWorker(int id, int numthreads, RelaxedSample relax, int T, 
+				RandomStream rng, StepSizePolicy policy, int batch)
+		{
+			this.id = id;
+			this.numthreads = numthreads;
+			this.relax = relax;
+			this.grad = new Gradient(T);
+			this.accum = new Gradient(T);
+			this.bGrad = new Gradient(T);
+			this.batch = batch;
+			this.buf = new double[T];
+			this.rng = rng;
+			this.policy = policy;
+			this.numsteps = 0;
+		}
 		
+		public Object call()
+		{
+			for(int n = 0; n < numsteps; n += batch)
+			{
+				// Step number as if steps were interleaved round-robin 
+				// with the other threads
+				long stepnum = (long) n * numthreads + id;
+				if(batch > 1)
+				{
+					sampleBatch(relax, rng, Math.min(batch, numsteps - n), 
+							grad, accum, bGrad);
+					relax.emdaStepConcurrent(bGrad, policy, stepnum, buf);
+					continue;
+				}
+				int chosen = ruleTable.sample(rng);
+				rules[chosen].randomGradient(relax, rng, grad);
+				relax.emdaStepConcurrent(grad, policy, stepnum, buf);
+			}
+			return null;
+		}
+	}
 }
@@ -0,0 +1,151 @@
+package logiclda.infer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logiclda.Corpus;
+import logiclda.EvalLDA;
+import logiclda.LDAParameters;
+
+/**
+ *
+ * Several independent (Logic) Collapsed Gibbs chains run in one JVM,
+ * keeping the chain with the best objective
+ *
+ * obj = LDA log-likelihood + satisfied logic weight
+ *
+ * (as for the "best z so far" of runGroundGibbs and runLDAMWS).
+ *
+ * The corpus, hyperparameters, options and rule contributions (with
+ * their precomputed exp factors) are loaded once and shared read-only.
+ * Each chain has its own DiscreteSample and a random number generator
+ * split from LDAParameters.rng, so results are deterministic for a
+ * fixed random seed and number of chains.  With checkpointing enabled,
+ * chain k checkpoints to %s.chain<k>.ckpt (basefn).
+ *
+ */
+public class MultiChain {
+
+	/**
+	 * Run numchains independent standard LDA chains of numsamp samples
+	 *
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do (per chain)
+	 * @param numchains How many chains to run
+	 * @return Final sample of the best chain
+	 */
+	public static DiscreteSample runChains(Corpus c, LDAParameters p,
+			int numsamp, int numchains)
+	{
+		return runChains(null, null, c, p, numsamp, numchains);
+	}
+
+	/**
+	 * Run numchains independent Logic Gibbs chains of numsamp samples
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param rs Rules to score chains with (null for LDA only)
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do (per chain)
+	 * @param numchains How many chains to run
+	 * @return Final sample of the best chain
+	 */
+	public static DiscreteSample runChains(LogicWeights logicweights,
+			MirrorDescent rs, Corpus c, LDAParameters p, int numsamp,
+			int numchains)
+	{
+		// Set up chains (splitting generators in order, before any run)
+		List<Chain> chains = new ArrayList<Chain>();
+		for(int k = 0; k < numchains; k++)
+		{
+			LDAParameters chainp = p.withRng(p.rng.split());
+			chainp.basefn = String.format("%s.chain%d", p.basefn, k);
+			chains.add(new Chain(k, logicweights, rs, c, chainp, numsamp));
+		}
+
+		// Run them, at most one per processor at a time
+		int numthreads = Math.max(1, Math.min(numchains,
+				Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(numthreads);
+		try
+		{
+			for(Future<Chain> f : pool.invokeAll(chains))
+				f.get();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new RuntimeException(ee.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		// Report and pick the best (ties go to the lowest chain number)
+		Chain best = null;
+		for(Chain ch : chains)
+		{
+			System.out.println(String.format("Chain %d: objective %f " +
+					"(LDA %f, logic %f)", ch.k, ch.ldaobj + ch.logicobj,
+					ch.ldaobj, ch.logicobj));
+			if(best == null ||
+					ch.ldaobj + ch.logicobj > best.ldaobj + best.logicobj)
+				best = ch;
+		}
+		System.out.println(String.format("Using chain %d of %d", best.k,
+				numchains));
+		return best.s;
+	}
+
+	/**
+	 * A single chain, along with its final sample and objective
+	 */
+	private static class Chain implements Callable<Chain>
+	{
+		int k;
+		LogicWeights logicweights;
+		MirrorDescent rs;
+		Corpus c;
+		LDAParameters p;
+		int numsamp;
+
+		DiscreteSample s;
+		double ldaobj;
+		double logicobj;
+
+		Chain(int k, LogicWeights logicweights, MirrorDescent rs,
+				Corpus c, LDAParameters p, int numsamp)
+		{
+			this.k = k;
+			this.logicweights = logicweights;
+			this.rs = rs;
+			this.c = c;
+			this.p = p;
+			this.numsamp = numsamp;
+		}
+
+		public Chain call()
+		{
+			if(logicweights == null)
+				s = CollapsedGibbs.doGibbs(c, p, numsamp);
+			else
+				s = CollapsedGibbs.doLogicGibbs(logicweights, c, p, numsamp);
+			ldaobj = EvalLDA.ldaLoglike(s, p);
+			logicobj = (rs == null) ? 0 : rs.satWeight(s.z);
+			return this;
+		}
+	}
+}
@@ -0,0 +1,365 @@
+package logiclda.infer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logiclda.RandomStream;
+import logiclda.Corpus;
+import logiclda.LDAParameters;
+
+/**
+ *
+ * Approximate distributed (AD-LDA) Collapsed Gibbs sampling
+ * (Newman, Asuncion, Smyth & Welling JMLR 2009)
+ *
+ * Documents are split into contiguous shards of roughly equal token
+ * count, one per thread.  Each shard samples its documents against a
+ * private copy of nw/nwcolsums (nd and z rows belong to a single shard,
+ * so they are shared), and the copies are reconciled at the end of each
+ * sweep:
+ *
+ * nw = nw + sum_k (nw_k - nw)
+ *
+ * Each shard has its own random number generator, split from
+ * LDAParameters.rng (itself seeded with LDAParameters.randseed), so
+ * results are deterministic for a fixed random seed and thread count.
+ *
+ * For LogicLDA, the (independent) rule contributions (with their 
+ * precomputed exp factors) are shared read-only by all shards.
+ *
+ */
+public class ParallelGibbs {
+
+	private Corpus c;
+	private LDAParameters p;
+	private DiscreteSample s;
+	private int T;
+	private int W;
+
+	// Rule contributions, or null for standard LDA
+	private LogicWeights logicweights;
+
+	private Shard[] shards;
+	private ExecutorService pool;
+
+	/**
+	 * Set up shards for an existing sample (which may be empty,
+	 * for online initialization)
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param s Sample object to be updated in place
+	 * @param numthreads How many shards/threads to use
+	 */
+	public ParallelGibbs(LogicWeights logicweights, Corpus c, LDAParameters p, 
+			DiscreteSample s, int numthreads)
+	{
+		this.c = c;
+		this.p = p;
+		this.s = s;
+		this.T = p.T;
+		this.W = p.W;
+
+		this.logicweights = logicweights;
+
+		// Split documents into contiguous shards of ~N/numthreads tokens
+		int[][] docidx = c.docIndices();
+		numthreads = Math.max(1, Math.min(numthreads, c.D));
+		shards = new Shard[numthreads];
+		int d = 0;
+		long cumtokens = 0;
+		for(int k = 0; k < numthreads; k++)
+		{
+			// Take at least one document, and leave at least one
+			// for each remaining shard
+			long target = ((long) c.N * (k + 1)) / numthreads;
+			int first = d;
+			int maxlast = c.D - (numthreads - k - 1);
+			while(d < maxlast && (d == first || cumtokens < target || 
+					k == numthreads - 1))
+				cumtokens += docidx[d++].length;
+			int last = d;
+
+			int[][] docs = new int[last - first][];
+			int[] docids = new int[last - first];
+			for(int di = first; di < last; di++)
+			{
+				docs[di - first] = docidx[di];
+				docids[di - first] = di;
+			}
+			shards[k] = new Shard(docids, docs, p.rng.split());
+		}
+
+		pool = Executors.newFixedThreadPool(numthreads);
+	}
+
+	/**
+	 * External method for doing (serial) online-init, then numsamp 
+	 * AD-LDA Gibbs samples with p.opts.threads threads
+	 *
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do
+	 * @return The final sample from the Markov Chain
+	 */
+	public static DiscreteSample doParallelGibbs(Corpus c, LDAParameters p,
+			int numsamp)
+	{
+		return doParallelGibbs(null, c, p, numsamp);
+	}
+
+	/**
+	 * External method for doing (serial) online-init, then numsamp 
+	 * AD-LDA (Logic) Gibbs samples with p.opts.threads threads
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do
+	 * @return The final sample from the Markov Chain
+	 */
+	public static DiscreteSample doParallelGibbs(LogicWeights logicweights,
+			Corpus c, LDAParameters p, int numsamp)
+	{
+		// Online initialization is done serially, since shards initialized 
+		// independently would not agree on topic labels 
+		// (skipped when resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, 
+				Checkpoint.model(logicweights), numsamp);
+		DiscreteSample s = ckpt.resume();
+		if(s == null)
+		{
+			s = new DiscreteSample(c.N, p.T, p.W, c.D, p.opts);
+			if(logicweights == null)
+				CollapsedGibbs.gibbsSample(c, p, s, true);
+			else
+				CollapsedGibbs.logicGibbsSample(logicweights, c, p, s, true);
+		}
+
+		ParallelGibbs pg = new ParallelGibbs(logicweights, c, p, s, 
+				p.opts.threads);
+		try
+		{
+			// Do the samples (stopping early if converged)
+			ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+					numsamp - ckpt.iteration());
+			for(int si = ckpt.iteration(); si < numsamp; si++)
+			{
+				System.out.println(String.format("Sample %d of %d", si, numsamp));
+				pg.sample(false);
+				ckpt.save(s, si + 1);
+				if(mon.converged(s))
+					break;
+			}
+			mon.report();
+			ckpt.complete();
+		}
+		finally
+		{
+			pg.shutdown();
+		}
+		return s;
+	}
+
+	/**
+	 * Do a single AD-LDA sweep over the whole corpus, then
+	 * reconcile the per-shard word-topic counts
+	 *
+	 * @param onlineInit If true, don't pre-subtract counts
+	 */
+	public void sample(boolean onlineInit)
+	{
+		// Refresh shard copies of the global counts
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for(int k = 0; k < shards.length; k++)
+			tasks.add(new CopyTask(k));
+		runAll(tasks);
+
+		// Sample each shard
+		tasks.clear();
+		for(Shard sh : shards)
+		{
+			sh.onlineInit = onlineInit;
+			tasks.add(sh);
+		}
+		runAll(tasks);
+
+		// Reconcile (each task merges a range of words)
+		tasks.clear();
+		for(int k = 0; k < shards.length; k++)
+			tasks.add(new MergeTask((W * k) / shards.length,
+					(W * (k + 1)) / shards.length));
+		runAll(tasks);
+		for(int j = 0; j < T; j++)
+		{
+			long total = s.nwcolsums[j];
+			for(Shard sh : shards)
+				total += sh.nwcolsums[j] - s.nwcolsums[j];
+			s.nwcolsums[j] = total;
+		}
+	}
+
+	/**
+	 * Stop worker threads
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/**
+	 * Run tasks on the worker threads and wait for all of them
+	 *
+	 * @param tasks
+	 */
+	private void runAll(List<Callable<Object>> tasks)
+	{
+		try
+		{
+			for(Future<Object> f : pool.invokeAll(tasks))
+				f.get();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new RuntimeException(ee.getCause());
+		}
+	}
+
+	/**
+	 * Documents assigned to a single thread, along with its
+	 * private word-topic counts and random number generator
+	 */
+	private class Shard implements Callable<Object>
+	{
+		int[] docids;
+		int[][] docs;
+		RandomStream rng;
+		TopicCounts nw;
+		long[] nwcolsums;
+		double[] tmp;
+		double[] betabuf;
+		int[] nwrow;
+		int[] ndrow;
+		TopicKernel kernel;
+		boolean onlineInit;
+
+		Shard(int[] docids, int[][] docs, RandomStream rng)
+		{
+			this.docids = docids;
+			this.docs = docs;
+			this.rng = rng;
+			this.nw = s.nw.copy();
+			this.nwcolsums = new long[T];
+			this.tmp = new double[T];
+			this.betabuf = new double[T];
+			this.nwrow = new int[T];
+			this.ndrow = new int[T];
+			this.kernel = TopicKernel.create(p.opts, T);
+		}
+
+		public Object call()
+		{
+			for(int di = 0; di < docs.length; di++)
+			{
+				int d = docids[di];
+				for(int i : docs[di])
+				{
+					int w = c.w[i];
+
+					// Remove current assignment from counts
+					// (unless we're doing 'online-style' init)
+					if(!onlineInit)
+						update(w, s.z[i], d, -1);
+
+					// Get un-normalized probabilities for each topic
+					double[] wbeta = p.beta.wordBeta(w, betabuf);
+					double normsum = kernel.weights(nw.getRow(w, nwrow), 
+							s.nd.getRow(d, ndrow), nwcolsums, wbeta, 
+							p.betasums, p.alpha, tmp);
+					if(logicweights != null && logicweights.hasWeights(i))
+						normsum = kernel.applyFactors(logicweights, i, tmp, normsum);
+
+					// Sample the assignment
+					s.z[i] = kernel.sample(rng, tmp, normsum);
+
+					// Update the count matrices
+					update(w, s.z[i], d, 1);
+				}
+			}
+			return null;
+		}
+
+		private void update(int w, int t, int d, int update)
+		{
+			nw.add(w, t, update);
+			nwcolsums[t] += update;
+			s.nd.add(d, t, update);
+		}
+	}
+
+	/**
+	 * Copy global word-topic counts into a shard
+	 */
+	private class CopyTask implements Callable<Object>
+	{
+		int k;
+
+		CopyTask(int k)
+		{
+			this.k = k;
+		}
+
+		public Object call()
+		{
+			Shard sh = shards[k];
+			sh.nw.copyFrom(s.nw);
+			System.arraycopy(s.nwcolsums, 0, sh.nwcolsums, 0, T);
+			return null;
+		}
+	}
+
+	/**
+	 * Merge shard word-topic count changes into the global counts
+	 * for words [start, end)
+	 */
+	private class MergeTask implements Callable<Object>
+	{
+		int start;
+		int end;
+
+		MergeTask(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		public Object call()
+		{
+			for(int w = start; w < end; w++)
+			{
+				for(int j = 0; j < T; j++)
+				{
+					int global = s.nw.get(w, j);
+					int delta = 0;
+					for(Shard sh : shards)
+						delta += sh.nw.get(w, j) - global;
+					s.nw.add(w, j, delta);
+				}
+			}
+			return null;
+		}
+	}
+}
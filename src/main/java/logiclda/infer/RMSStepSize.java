@@ -0,0 +1,41 @@
+package logiclda.infer;
+
+/**
+ * RMSProp: step size eta / sqrt(G_i) for position i, where G_i is an 
+ * exponential moving average of the squared gradient norms of its 
+ * updates (so, unlike AdaGrad, steps do not keep shrinking)
+ * 
+ * G is a single float per position.
+ */
+public class RMSStepSize extends StepSizePolicy 
+{
+	// Weight of the old average at each update
+	private static final double DECAY = 0.9;
+	
+	// Keeps steps finite for (near) zero gradients
+	private static final double EPS = 1e-10;
+	
+	private double eta;
+	private float[] meansq;
+	
+	/**
+	 * @param N Corpus length
+	 * @param eta Base step size
+	 */
+	public RMSStepSize(int N, double eta)
+	{
+		this.eta = eta;
+		this.meansq = new float[N];
+	}
+	
+	public double stepSize(long n, Gradient grad, int gi)
+	{
+		int i = grad.indices[gi];
+		double sq = sqNorm(grad, gi);
+		// (the first update of a position starts the average)
+		double g = (meansq[i] == 0) ? sq : 
+			DECAY * meansq[i] + (1 - DECAY) * sq;
+		meansq[i] = (float) g;
+		return eta / Math.sqrt(g + EPS);
+	}
+}
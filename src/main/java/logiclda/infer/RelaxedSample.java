@@ -3,6 +3,11 @@ package logiclda.infer;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.ujmp.core.Matrix;
 import org.ujmp.core.MatrixFactory;
@@ -20,32 +25,230 @@ public class RelaxedSample implements Sample
 	public static final double MIN_PHI = 0.001;
 	public static final double MIN_THETA = 0.001;
 	
+	// Relaxed z, one T-row per corpus index (null for rows not stored 
+	// in a hybrid sample, which are the indicator of the most probable 
+	// topic given phi/theta)
 	public double[][] zrelax;
 	public double[][] phi;
 	public double[][] theta;
 	
+	// Per-topic loops of emdaStep/updatePhiTheta
+	// (stateless, so shared by concurrent emdaStep calls)
+	private TopicKernel kernel;
+	
+	// Scratch space of emdaStep
+	private double[] stepbuf;
+	
+	// Expected word-topic / doc-topic counts (sums of zrelax rows), 
+	// kept up to date by emdaStep
+	private double[][] enw;
+	private double[][] end;
+	private int[] words;
+	private int[] docs;
+	
+	// Hybrid sample only: updatePhiTheta scratch for expected counts 
+	// (from the rows not stored, plus enw/end)
+	private boolean hybrid;
+	private double[][] implicitnw;
+	private double[][] implicitnd;
+	
+	// Pipelined re-estimation (beginUpdatePhiTheta): snapshot of the 
+	// expected counts, and the estimates being calculated from it
+	private double[][] snapnw;
+	private double[][] snapnd;
+	private double[][] nextphi;
+	private double[][] nexttheta;
+	private Future<?> pending;
+	
+	// Locks for concurrent emdaStep: striped over z-entries, words and 
+	// documents (always taken in that order)
+	private static final int NUMSTRIPES = 1024;
+	private Object[] zlocks;
+	private Object[] wlocks;
+	private Object[] dlocks;
+	
 	public RelaxedSample(Corpus c, LDAParameters p, DiscreteSample s)
+	{
+		this(c, p, s, null);
+	}
+	
+	/**
+	 * Hybrid relaxed sample, storing z-rows for some corpus indices only
+	 * 
+	 * The other rows are never stored: they are taken to be the 
+	 * indicator of the most probable topic given the current phi/theta 
+	 * (the optimum of the LDA term alone, which is linear in the row), 
+	 * and computed on demand.  Mirror Descent steps on them are ignored, 
+	 * so stored should contain every index any logic rule can touch 
+	 * (see MirrorDescent.relaxedSample).
+	 * 
+	 * This approximates the full sample, where such rows only move 
+	 * towards that optimum over many steps (starting from the posterior), 
+	 * so phi/theta (and the final z) generally differ somewhat.
+	 * 
+	 * @param c
+	 * @param p
+	 * @param s Sample to initialize phi/theta from
+	 * @param stored Corpus indices to store (null for all)
+	 */
+	public RelaxedSample(Corpus c, LDAParameters p, DiscreteSample s, 
+			BitSet stored)
 	{		
+		kernel = TopicKernel.create(p.opts, p.T);
+		stepbuf = new double[p.T];
+		words = c.w;
+		docs = c.d;
+		zlocks = newLocks();
+		wlocks = newLocks();
+		dlocks = newLocks();
+		
 		// Init phi/theta as mean of posteriors from prev sample
 		//
-		zrelax = new double[c.N][p.T];		
+		zrelax = new double[c.N][];		
 		phi = (s.getPhi(p)).toDoubleArray();
 		theta = (s.getTheta(p)).toDoubleArray();
 		
 		// Init z-relax as posterior given phi/theta
+		hybrid = false;
 		for(int i = 0; i < s.z.length; i++)
-		{			
-			double normsum = 0;
-			for(int t = 0; t < p.T; t++)
+		{
+			if(stored != null && !stored.get(i))
 			{
-				zrelax[i][t] = theta[c.d[i]][t] * phi[t][c.w[i]];
-				assert(!Double.isNaN(zrelax[i][t]));
-				normsum += zrelax[i][t]; 
+				hybrid = true;
+				continue;
 			}
-			assert(normsum > 0);
-			for(int t = 0; t < p.T; t++)
-				zrelax[i][t] /= normsum;						
+			zrelax[i] = posterior(i, new double[p.T]);
 		}		
+		
+		// Expected counts (only rebuilt by recalcCounts from now on)
+		enw = new double[p.W][p.T];
+		end = new double[c.D][p.T];		
+		if(hybrid)
+		{
+			implicitnw = new double[p.W][p.T];
+			implicitnd = new double[c.D][p.T];
+		}
+		recalcCounts();
+	}
+	
+	/**
+	 * Posterior of z_i given the current phi/theta
+	 * 
+	 * @param i Corpus index
+	 * @param row T-vector to fill in
+	 * @return row
+	 */
+	private double[] posterior(int i, double[] row)
+	{
+		double normsum = 0;
+		for(int t = 0; t < row.length; t++)
+		{
+			row[t] = theta[docs[i]][t] * phi[t][words[i]];
+			assert(!Double.isNaN(row[t]));
+			normsum += row[t]; 
+		}
+		assert(normsum > 0);
+		for(int t = 0; t < row.length; t++)
+			row[t] /= normsum;
+		return row;
+	}
+	
+	/**
+	 * Most probable topic of z_i given the current phi/theta
+	 * (the topic of a row not stored)
+	 * 
+	 * @param i Corpus index
+	 * @return
+	 */
+	private int argmaxTopic(int i)
+	{
+		int maxidx = 0;
+		double maxval = -1;
+		for(int t = 0; t < phi.length; t++)
+		{
+			double val = theta[docs[i]][t] * phi[t][words[i]];
+			if(val > maxval)
+			{
+				maxidx = t;
+				maxval = val;
+			}
+		}
+		return maxidx;
+	}
+	
+	/**
+	 * Relaxed z-row of corpus index i (computed into buf if not stored)
+	 * 
+	 * @param i
+	 * @param buf T-vector scratch space
+	 * @return
+	 */
+	public double[] getRow(int i, double[] buf)
+	{
+		if(zrelax[i] != null)
+			return zrelax[i];
+		Arrays.fill(buf, 0);
+		buf[argmaxTopic(i)] = 1;
+		return buf;
+	}
+	
+	/**
+	 * Number of z-rows actually stored
+	 */
+	public int numStored()
+	{
+		int numstored = 0;
+		for(double[] row : zrelax)
+			if(row != null)
+				numstored++;
+		return numstored;
+	}
+	
+	private static Object[] newLocks()
+	{
+		Object[] locks = new Object[NUMSTRIPES];
+		for(int k = 0; k < NUMSTRIPES; k++)
+			locks[k] = new Object();
+		return locks;
+	}
+	
+	/**
+	 * Recalculate expected NW / ND count matrices from scratch 
+	 * (eg, if zrelax was modified directly)
+	 */
+	public void recalcCounts()
+	{
+		for(double[] row : enw)
+			Arrays.fill(row, 0);
+		for(double[] row : end)
+			Arrays.fill(row, 0);
+		for(int i = 0; i < zrelax.length; i++)
+		{
+			if(zrelax[i] == null)
+				continue;
+			kernel.addTo(enw[words[i]], zrelax[i]);
+			kernel.addTo(end[docs[i]], zrelax[i]);
+		}
+	}
+	
+	/**
+	 * Recalculate the expected counts of the rows not stored, 
+	 * from the current phi/theta
+	 */
+	private void recalcImplicitCounts()
+	{
+		for(double[] row : implicitnw)
+			Arrays.fill(row, 0);
+		for(double[] row : implicitnd)
+			Arrays.fill(row, 0);
+		for(int i = 0; i < zrelax.length; i++)
+		{
+			if(zrelax[i] != null)
+				continue;
+			int t = argmaxTopic(i);
+			implicitnw[words[i]][t]++;
+			implicitnd[docs[i]][t]++;
+		}
 	}
 	
 	/**
@@ -55,18 +258,20 @@ public class RelaxedSample implements Sample
 	public int[] getZ()
 	{
 		int N = zrelax.length;
-		int T = zrelax[0].length;
+		int T = phi.length;
 		int[] hardz = new int[N];
+		double[] buf = new double[T];
 		for(int i = 0; i < N; i++)
 		{
+			double[] row = getRow(i, buf);
 			int maxidx = 0;
 			double maxval= -1;
 			for(int t = 0; t < T; t++)
 			{
-				if(zrelax[i][t] > maxval)
+				if(row[t] > maxval)
 				{
 					maxidx = t;
-					maxval = zrelax[i][t];					
+					maxval = row[t];					
 				}				
 			}
 			hardz[i] = maxidx;			
@@ -75,33 +280,85 @@ public class RelaxedSample implements Sample
 	}
 		
 	/**
-	 * Do an Entropic Mirror Descent step on a single relaxed z-entry
+	 * Do an Entropic Mirror Descent step on the relaxed z-entries 
+	 * of a gradient, with step sizes from policy
 	 * 
-	 * @param i Index to update
-	 * @param gradSignMag Sign and magnitude of gradient
-	 * @param tGradIdx Indices of entries w/ non-zero gradients
-	 * @param stepSize Step size parameter
+	 * @param stepGrad Gradient (dense or sparse entries)
+	 * @param policy
+	 * @param n Step number within the current outer loop
 	 */
-	public void emdaStep(Gradient stepGrad, double stepSize)
-	{		
-		// Each z-entry where we have gradient information
-		for(int gi = 0; gi < stepGrad.gradients.length; gi++)
+	public void emdaStep(Gradient stepGrad, StepSizePolicy policy, long n)
+	{
+		for(int gi = 0; gi < stepGrad.size; gi++)
+			if(zrelax[stepGrad.indices[gi]] != null)
+				updateEntry(stepGrad, gi, policy.stepSize(n, stepGrad, gi), 
+						stepbuf);
+	}
+	
+	/**
+	 * Entropic Mirror Descent step safe to run concurrently with others 
+	 * (Hogwild): each z-entry (and the expected counts of its word and 
+	 * document) is updated under striped locks, but gradients may have 
+	 * been calculated from entries other threads were updating
+	 * 
+	 * Unlocked readers never see an entry un-normalized (a reader could 
+	 * otherwise compute a huge gradient from it, underflowing the 
+	 * next entry it updates to all zeros): TopicKernel steps build 
+	 * the new row in buf, then write each entry of z once, already 
+	 * normalized.
+	 * 
+	 * (Per-position step size state is updated under the same lock 
+	 * as the z-entry.)
+	 * 
+	 * @param stepGrad Gradient (dense or sparse entries)
+	 * @param policy
+	 * @param n Step number within the current outer loop
+	 * @param buf T-vector scratch space (one per thread)
+	 */
+	public void emdaStepConcurrent(Gradient stepGrad, StepSizePolicy policy,
+			long n, double[] buf)
+	{
+		for(int gi = 0; gi < stepGrad.size; gi++)
 		{
-			// Get true index and gradient
 			int i = stepGrad.indices[gi];
-			double[] curGrad = stepGrad.gradients[gi];
-			// Multiply entries w/ non-zero gradients
-			for(int t = 0; t < curGrad.length; t++)
-				zrelax[i][t] *= Math.exp(stepSize * curGrad[t]);
-			// Re-normalize
-			double normsum = 0;
-			for(double val : zrelax[i])
-				normsum += val;
-			assert(normsum > 0);
-			for(int t = 0; t < curGrad.length; t++)
-				zrelax[i][t] /= normsum;
+			if(zrelax[i] == null)
+				continue;
+			synchronized(zlocks[i % NUMSTRIPES])
+			{
+				synchronized(wlocks[words[i] % NUMSTRIPES])
+				{
+					synchronized(dlocks[docs[i] % NUMSTRIPES])
+					{
+						updateEntry(stepGrad, gi, 
+								policy.stepSize(n, stepGrad, gi), buf);
+					}
+				}
+			}
 		}
-	}	
+	}
+	
+	/**
+	 * Mirror Descent update of the z-entry of gradient entry gi, 
+	 * moving the change into the expected counts (a single fused 
+	 * pass over the entry, and exp() of nonzero gradients only)
+	 * 
+	 * @param buf T-vector scratch space
+	 */
+	private void updateEntry(Gradient stepGrad, int gi, double stepSize, 
+			double[] buf)
+	{
+		int i = stepGrad.indices[gi];
+		if(zrelax[i] == null)
+			return;
+		double[] curGrad = stepGrad.values[gi];
+		int nnz = stepGrad.nnz[gi];
+		if(nnz == Gradient.DENSE)
+			kernel.emdaDense(zrelax[i], curGrad, stepSize, buf, 
+					enw[words[i]], end[docs[i]]);
+		else
+			kernel.emdaSparse(zrelax[i], stepGrad.topics[gi], curGrad, nnz, 
+					stepSize, buf, enw[words[i]], end[docs[i]]);
+	}
 		
 	public Matrix getPhi(LDAParameters p)
 	{
@@ -115,26 +372,119 @@ public class RelaxedSample implements Sample
 	
 	/**
 	 * Update MAP estimates of phi/theta
+	 * (from the expected counts kept by emdaStep, no pass over zrelax; 
+	 * a hybrid sample also needs one pass over the rows not stored)
+	 * 
 	 * @param c
 	 * @param p
 	 */
 	public void updatePhiTheta(Corpus c, LDAParameters p)
 	{
-		// Calculate 'expected' NW / ND count matrices 
-		double[][] enw = new double[p.W][p.T];
-		double[][] end = new double[c.D][p.T];		
-		for(int i = 0; i < c.N; i++)
+		estimatePhiTheta(p, enw, end, phi, theta);
+	}
+	
+	/**
+	 * Start re-estimating phi/theta in the background (on pool), from 
+	 * a snapshot of the current expected counts
+	 * 
+	 * emdaStep (and readers of phi/theta) can carry on meanwhile; the 
+	 * new estimates only replace phi/theta at finishUpdatePhiTheta().
+	 * 
+	 * @param p
+	 * @param pool
+	 */
+	public void beginUpdatePhiTheta(final LDAParameters p, 
+			ExecutorService pool)
+	{
+		assert(pending == null);
+		if(snapnw == null)
 		{
-			for(int t = 0; t < p.T; t++)
+			snapnw = new double[enw.length][p.T];
+			snapnd = new double[end.length][p.T];
+			nextphi = new double[phi.length][phi[0].length];
+			nexttheta = new double[theta.length][theta[0].length];
+		}
+		for(int w = 0; w < enw.length; w++)
+			System.arraycopy(enw[w], 0, snapnw[w], 0, p.T);
+		for(int d = 0; d < end.length; d++)
+			System.arraycopy(end[d], 0, snapnd[d], 0, p.T);
+		
+		pending = pool.submit(new Runnable()
+		{
+			public void run()
 			{
-				enw[c.w[i]][t] += zrelax[i][t];
-				end[c.d[i]][t] += zrelax[i][t];				
+				estimatePhiTheta(p, snapnw, snapnd, nextphi, nexttheta);
 			}
+		});
+	}
+	
+	/**
+	 * Wait for the estimates started by beginUpdatePhiTheta() and make 
+	 * them the current phi/theta (no-op if none were started)
+	 */
+	public void finishUpdatePhiTheta()
+	{
+		if(pending == null)
+			return;
+		try
+		{
+			pending.get();
+		}
+		catch(InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		}
+		catch(ExecutionException ee)
+		{
+			throw new RuntimeException(ee.getCause());
+		}
+		pending = null;
+		
+		// Swap buffers
+		double[][] tmp = phi;
+		phi = nextphi;
+		nextphi = tmp;
+		tmp = theta;
+		theta = nexttheta;
+		nexttheta = tmp;
+	}
+	
+	/**
+	 * MAP estimates of phi/theta from expected counts 
+	 * (plus, for a hybrid sample, the rows not stored, as the indicator 
+	 * of the most probable topic given the current phi/theta)
+	 * 
+	 * @param p
+	 * @param nw Expected word-topic counts of the stored rows
+	 * @param nd Expected doc-topic counts of the stored rows
+	 * @param phiout
+	 * @param thetaout
+	 */
+	private void estimatePhiTheta(LDAParameters p, double[][] nw, 
+			double[][] nd, double[][] phiout, double[][] thetaout)
+	{
+		if(!hybrid)
+		{
+			// Update our MAP estimates
+			updateMapPhi(p, nw, phiout);
+			updateMapTheta(p, nd, thetaout);
+			return;
 		}
 		
-		// Update our MAP estimates
-		updateMapPhi(p, enw);
-		updateMapTheta(p, end);
+		// Rows not stored follow the old phi/theta
+		recalcImplicitCounts();
+		addTo(implicitnw, nw);
+		addTo(implicitnd, nd);
+		updateMapPhi(p, implicitnw, phiout);
+		updateMapTheta(p, implicitnd, thetaout);
+	}
+	
+	private static void addTo(double[][] dst, double[][] src)
+	{
+		for(int r = 0; r < src.length; r++)
+			for(int t = 0; t < src[r].length; t++)
+				dst[r][t] += src[r][t];
 	}
 
 	/**
@@ -142,8 +492,10 @@ public class RelaxedSample implements Sample
 	 * 
 	 * @param p
 	 * @param enw
+	 * @param phi Output
 	 */
-	private void updateMapPhi(LDAParameters p, double[][] enw)
+	private static void updateMapPhi(LDAParameters p, double[][] enw, 
+			double[][] phi)
 	{				
 		// Estimate entries
 		for(int t = 0; t < p.T; t++)
@@ -152,7 +504,7 @@ public class RelaxedSample implements Sample
 			for(int w = 0; w < p.W; w++)
 			{
 				// Cannot allow negative entries
-				phi[t][w] = Math.max(MIN_PHI, enw[w][t] + p.beta[t][w] - 1);
+				phi[t][w] = Math.max(MIN_PHI, enw[w][t] + p.beta.get(t, w) - 1);
 				normsum += phi[t][w];
 			}
 			// Normalize
@@ -166,8 +518,10 @@ public class RelaxedSample implements Sample
 	 * 
 	 * @param p
 	 * @param end
+	 * @param theta Output
 	 */
-	private void updateMapTheta(LDAParameters p, double[][] end)
+	private static void updateMapTheta(LDAParameters p, double[][] end, 
+			double[][] theta)
 	{
 		// Estimate entries
 		for(int d = 0; d < end.length; d++)
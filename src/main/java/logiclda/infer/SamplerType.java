@@ -0,0 +1,23 @@
+package logiclda.infer;
+
+/**
+ * Collapsed Gibbs sampling engines usable by doGibbs/doLogicGibbs
+ */
+public enum SamplerType 
+{
+	DENSE("dense"), // O(T) per token reference sampler (CollapsedGibbs)
+	SPARSE("sparse"), // bucketed sampler (SparseGibbs)
+	ALIAS("alias"); // alias table Metropolis-Hastings (AliasGibbs)
+	
+	private final String samplerName;
+	
+	SamplerType(String name)
+	{
+		this.samplerName = name;		
+	}
+		
+	public boolean matchesName(String str)
+	{
+		return this.samplerName.equalsIgnoreCase(str);
+	}
+}
@@ -0,0 +1,84 @@
+package logiclda.infer;
+
+import logiclda.MiscUtil;
+import logiclda.RandomStream;
+
+/**
+ * Reference TopicKernel: plain loops, same arithmetic (and so the 
+ * same samples) as the original samplers 
+ */
+public class ScalarKernel extends TopicKernel 
+{
+	public ScalarKernel(int T)
+	{
+		super(T);
+	}
+	
+	public double weights(int[] nw, int[] nd, long[] colsums, 
+			double[] beta, double[] betasums, double[] alpha, double[] vals)
+	{
+		double normsum = 0;
+		for(int t = 0; t < T; t++)
+		{
+			double num1 = nw[t] + beta[t];
+			double den1 = colsums[t] + betasums[t];
+			double num2 = nd[t] + alpha[t];
+			vals[t] = (num1 / den1) * num2;
+			normsum += vals[t];
+		}
+		return normsum;
+	}
+	
+	public double applyFactors(LogicWeights lw, int i, 
+			double[] vals, double normsum)
+	{
+		return lw.applyFactors(i, vals, normsum);
+	}
+	
+	public int sample(RandomStream rng, double[] vals, double normsum)
+	{
+		return MiscUtil.multSample(rng, vals, normsum);
+	}
+	
+	public void expStep(double[] z, double[] grad, double stepsize)
+	{
+		for(int t = 0; t < grad.length; t++)
+			z[t] *= Math.exp(stepsize * grad[t]);
+	}
+	
+	public double normalize(double[] x)
+	{
+		double normsum = 0;
+		for(double val : x)
+			normsum += val;
+		for(int t = 0; t < x.length; t++)
+			x[t] /= normsum;
+		return normsum;
+	}
+	
+	public void addTo(double[] dst, double[] src)
+	{
+		for(int t = 0; t < src.length; t++)
+			dst[t] += src[t];
+	}
+	
+	public double sum(double[] x)
+	{
+		double normsum = 0;
+		for(double val : x)
+			normsum += val;
+		return normsum;
+	}
+	
+	public void rescale(double[] z, double[] src, double scale, 
+			double[] nw, double[] nd)
+	{
+		for(int t = 0; t < T; t++)
+		{
+			double delta = src[t] * scale - z[t];
+			z[t] += delta;
+			nw[t] += delta;
+			nd[t] += delta;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package logiclda.infer;
+
+import java.util.Arrays;
+
+/**
+ * Topic counts stored sparsely, one small array per row holding 
+ * (topic, count) pairs sorted by topic, updated in place
+ * 
+ * Intended for document-topic counts of corpora with many short 
+ * documents, where most of a dense D x T matrix would be zeros.
+ * Lookups are a binary search over the non-zero topics of a row.
+ */
+public class SparseCounts implements TopicCounts {
+
+	// Initial number of (topic, count) pairs allocated per row
+	private static final int INIT_PAIRS = 2;
+	
+	// entries[r] = {t0, n0, t1, n1, ...} with t0 < t1 < ...
+	private int[][] entries;
+	private int[] nnz;
+	private int R;
+	private int T;
+	
+	/**
+	 * All-zero counts
+	 * 
+	 * @param R Number of rows (words or documents)
+	 * @param T Number of topics
+	 */
+	public SparseCounts(int R, int T)
+	{
+		this.R = R;
+		this.T = T;
+		this.entries = new int[R][];
+		this.nnz = new int[R];
+		for(int r = 0; r < R; r++)
+			entries[r] = new int[2 * Math.min(INIT_PAIRS, T)];
+	}
+	
+	public int get(int r, int t)
+	{
+		int k = find(r, t);
+		return (k >= 0) ? entries[r][2 * k + 1] : 0;
+	}
+	
+	public void add(int r, int t, int delta)
+	{
+		int k = find(r, t);
+		int[] row = entries[r];
+		if(k >= 0)
+		{
+			row[2 * k + 1] += delta;
+			assert(row[2 * k + 1] >= 0);
+			if(row[2 * k + 1] == 0)
+			{
+				// Shift later pairs down over the emptied one
+				System.arraycopy(row, 2 * k + 2, row, 2 * k, 
+						2 * (nnz[r] - k - 1));
+				nnz[r]--;
+			}
+			return;
+		}
+		if(delta == 0)
+			return;
+		assert(delta > 0);
+		
+		// Insert a new pair at its sorted position, growing if needed
+		k = -(k + 1);
+		if(2 * nnz[r] == row.length)
+		{
+			row = Arrays.copyOf(row, 2 * Math.min(2 * nnz[r], T));
+			entries[r] = row;
+		}
+		System.arraycopy(row, 2 * k, row, 2 * k + 2, 2 * (nnz[r] - k));
+		row[2 * k] = t;
+		row[2 * k + 1] = delta;
+		nnz[r]++;
+	}
+	
+	public int nonZeros(int r, int[] topics, int[] counts)
+	{
+		int[] row = entries[r];
+		for(int k = 0; k < nnz[r]; k++)
+		{
+			topics[k] = row[2 * k];
+			if(counts != null)
+				counts[k] = row[2 * k + 1];
+		}
+		return nnz[r];
+	}
+	
+	public int[] getRow(int r, int[] buf)
+	{
+		Arrays.fill(buf, 0, T, 0);
+		int[] row = entries[r];
+		for(int k = 0; k < nnz[r]; k++)
+			buf[row[2 * k]] = row[2 * k + 1];
+		return buf;
+	}
+	
+	public int numRows()
+	{
+		return R;
+	}
+	
+	public int numTopics()
+	{
+		return T;
+	}
+	
+	public void copyFrom(TopicCounts other)
+	{
+		assert(other.numRows() == R && other.numTopics() == T);
+		int[] topics = new int[T];
+		int[] counts = new int[T];
+		for(int r = 0; r < R; r++)
+		{
+			int n = other.nonZeros(r, topics, counts);
+			if(entries[r].length < 2 * n)
+				entries[r] = new int[2 * n];
+			for(int k = 0; k < n; k++)
+			{
+				entries[r][2 * k] = topics[k];
+				entries[r][2 * k + 1] = counts[k];
+			}
+			nnz[r] = n;
+		}
+	}
+	
+	public TopicCounts copy()
+	{
+		SparseCounts sc = new SparseCounts(R, T);
+		sc.copyFrom(this);
+		return sc;
+	}
+	
+	/**
+	 * Index of topic t among the pairs of row r, or 
+	 * (-(insertion point) - 1) if absent
+	 */
+	private int find(int r, int t)
+	{
+		int[] row = entries[r];
+		int lo = 0;
+		int hi = nnz[r] - 1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int mt = row[2 * mid];
+			if(mt < t)
+				lo = mid + 1;
+			else if(mt > t)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+}
@@ -0,0 +1,431 @@
+package logiclda.infer;
+
+import logiclda.Corpus;
+import logiclda.LDAParameters;
+import logiclda.MiscUtil;
+
+/**
+ *
+ * Sparse bucketed Collapsed Gibbs sampling for LDA
+ * (Yao, Mimno & McCallum KDD 2009)
+ *
+ * The full conditional for topic t at position i is split as
+ *
+ * (nw + beta)(nd + alpha) / (nwcolsum + betasum) =
+ *     alpha * beta / (nwcolsum + betasum)          [smoothing bucket]
+ *   + nd * beta / (nwcolsum + betasum)             [document bucket]
+ *   + nw * (nd + alpha) / (nwcolsum + betasum)     [word bucket]
+ *
+ * The smoothing and document bucket sums are maintained incrementally,
+ * and the word bucket only visits the topics with non-zero nw for the
+ * current word, so per-token cost scales with the number of non-zero
+ * topics instead of T.  Documents are visited one at a time.
+ *
+ * Requires beta to be constant across words for each topic
+ * (see LDAParameters.topicbeta), CollapsedGibbs.gibbsSample remains
+ * the dense reference implementation.
+ *
+ */
+public class SparseGibbs {
+
+	private Corpus c;
+	private LDAParameters p;
+	private DiscreteSample s;
+	private int T;
+
+	// Per-topic beta
+	private double[] beta;
+
+	// Corpus positions grouped by document
+	private int[][] docidx;
+
+	// Topics with non-zero count for each word (unordered)
+	private int[][] wordtopics;
+	private int[] wordnnz;
+
+	// Topics with non-zero count for the current document,
+	// along with the position of each topic in that list (-1 if absent)
+	// and a dense copy of its counts (avoids lookups into sparse nd)
+	private int[] doctopics;
+	private int[] docpos;
+	private int docnnz;
+	private int[] doccounts;
+
+	// den[t] = nwcolsums[t] + betasums[t]
+	// coef[t] = (nd[t] + alpha[t]) / den[t] for the current document
+	private double[] den;
+	private double[] coef;
+
+	// Smoothing and document bucket sums
+	private double ssum;
+	private double rsum;
+
+	// Scratch space for word bucket, dense (logic) sampling
+	// and non-zero count lookups
+	private double[] qbuf;
+	private double[] tmp;
+	private int[] nzbuf;
+	private int[] nzcounts;
+
+	/**
+	 * Build sparse sampling data structures for an existing sample
+	 * (which may be empty, for online initialization)
+	 *
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param s Sample object to be updated in place
+	 */
+	public SparseGibbs(Corpus c, LDAParameters p, DiscreteSample s)
+	{
+		assert(p.topicbeta != null);
+		this.c = c;
+		this.p = p;
+		this.s = s;
+		this.T = p.T;
+		this.beta = p.topicbeta;
+
+		// Group corpus positions by document
+		docidx = c.docIndices();
+
+		nzbuf = new int[T];
+		nzcounts = new int[T];
+		
+		// Non-zero topic lists for each word
+		wordtopics = new int[p.W][];
+		wordnnz = new int[p.W];
+		for(int w = 0; w < p.W; w++)
+		{
+			wordtopics[w] = new int[Math.min(4, T)];
+			int nnz = s.nw.nonZeros(w, nzbuf, null);
+			for(int k = 0; k < nnz; k++)
+				addWordTopic(w, nzbuf[k]);
+		}
+
+		doctopics = new int[T];
+		doccounts = new int[T];
+		docpos = new int[T];
+		for(int t = 0; t < T; t++)
+			docpos[t] = -1;
+		docnnz = 0;
+
+		den = new double[T];
+		coef = new double[T];
+		qbuf = new double[T];
+		tmp = new double[T];
+	}
+
+	/**
+	 * Can the sparse sampler be used with these hyperparameters?
+	 *
+	 * @param p
+	 * @return
+	 */
+	public static boolean supports(LDAParameters p)
+	{
+		return p.topicbeta != null;
+	}
+
+	/**
+	 * External method for doing online-init, then numsamp sparse Gibbs samples
+	 *
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do
+	 * @return The final sample from the Markov Chain
+	 */
+	public static DiscreteSample doSparseGibbs(Corpus c, LDAParameters p,
+			int numsamp)
+	{
+		return doSparseGibbs(null, c, p, numsamp);
+	}
+
+	/**
+	 * External method for doing online-init, then numsamp sparse
+	 * (Logic) Gibbs samples
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param c Contains words, documents
+	 * @param p Contains hyperparameters
+	 * @param numsamp How many samples to do
+	 * @return The final sample from the Markov Chain
+	 */
+	public static DiscreteSample doSparseGibbs(LogicWeights logicweights,
+			Corpus c, LDAParameters p, int numsamp)
+	{
+		// Online initialization (unless resuming from a checkpoint)
+		Checkpoint ckpt = new Checkpoint(c, p, 
+				Checkpoint.model(logicweights), numsamp);
+		DiscreteSample s = ckpt.resume();
+		SparseGibbs sg;
+		if(s == null)
+		{
+			s = new DiscreteSample(c.N, p.T, p.W, c.D, p.opts);
+			sg = new SparseGibbs(c, p, s);
+			sg.sample(logicweights, true);
+		}
+		else
+			sg = new SparseGibbs(c, p, s);
+
+		// Do the samples (stopping early if converged)
+		ConvergenceMonitor mon = new ConvergenceMonitor(p, c.N, 
+				numsamp - ckpt.iteration());
+		for(int si = ckpt.iteration(); si < numsamp; si++)
+		{
+			System.out.println(String.format("Sample %d of %d", si, numsamp));
+			sg.sample(logicweights, false);
+			ckpt.save(s, si + 1);
+			if(mon.converged(s))
+				break;
+		}
+		mon.report();
+		ckpt.complete();
+
+		return s;
+	}
+
+	/**
+	 * Do a single sparse Collapsed Gibbs sample over the whole corpus
+	 *
+	 * @param logicweights Sparse (independent) rule contributions,
+	 * or null for standard LDA
+	 * @param onlineInit If true, don't pre-subtract counts
+	 */
+	public void sample(LogicWeights logicweights, boolean onlineInit)
+	{
+		// Recalculate smoothing bucket from scratch each sweep
+		// (avoids accumulating floating point drift)
+		ssum = 0;
+		for(int t = 0; t < T; t++)
+		{
+			den[t] = s.nwcolsums[t] + p.betasums[t];
+			coef[t] = p.alpha[t] / den[t];
+			ssum += p.alpha[t] * beta[t] / den[t];
+		}
+
+		for(int d = 0; d < c.D; d++)
+		{
+			startDoc(d);
+			for(int i : docidx[d])
+			{
+				int w = c.w[i];
+
+				// Remove current assignment from counts
+				// (unless we're doing 'online-style' init)
+				if(!onlineInit)
+					update(w, s.z[i], d, -1);
+
+				// Sample the assignment
+				if(logicweights != null && logicweights.hasWeights(i))
+					s.z[i] = denseSample(w, d, logicweights, i);
+				else
+					s.z[i] = sparseSample(w, d);
+
+				// Update the count matrices
+				update(w, s.z[i], d, 1);
+			}
+			endDoc(d);
+		}
+	}
+
+	/**
+	 * Set up document bucket and coefficients for document d
+	 * @param d
+	 */
+	private void startDoc(int d)
+	{
+		rsum = 0;
+		docnnz = 0;
+		int nnz = s.nd.nonZeros(d, nzbuf, nzcounts);
+		for(int k = 0; k < nnz; k++)
+		{
+			int t = nzbuf[k];
+			addDocTopic(t);
+			doccounts[t] = nzcounts[k];
+			rsum += beta[t] * nzcounts[k] / den[t];
+			coef[t] = (nzcounts[k] + p.alpha[t]) / den[t];
+		}
+	}
+
+	/**
+	 * Restore coefficients to their document-free values
+	 * @param d
+	 */
+	private void endDoc(int d)
+	{
+		for(int k = 0; k < docnnz; k++)
+		{
+			int t = doctopics[k];
+			coef[t] = p.alpha[t] / den[t];
+			docpos[t] = -1;
+			doccounts[t] = 0;
+		}
+		docnnz = 0;
+	}
+
+	/**
+	 * Update counts along with bucket sums and non-zero topic lists
+	 *
+	 * @param w
+	 * @param t
+	 * @param d
+	 * @param update
+	 */
+	private void update(int w, int t, int d, int update)
+	{
+		// Take out old bucket contributions of topic t
+		ssum -= p.alpha[t] * beta[t] / den[t];
+		rsum -= beta[t] * doccounts[t] / den[t];
+
+		s.updateCounts(w, t, d, update);
+		doccounts[t] += update;
+		int nwt = s.nw.get(w, t);
+
+		// Put back new bucket contributions of topic t
+		den[t] = s.nwcolsums[t] + p.betasums[t];
+		ssum += p.alpha[t] * beta[t] / den[t];
+		rsum += beta[t] * doccounts[t] / den[t];
+		coef[t] = (doccounts[t] + p.alpha[t]) / den[t];
+
+		// Maintain non-zero topic lists
+		if(update > 0)
+		{
+			if(doccounts[t] == update)
+				addDocTopic(t);
+			if(nwt == update)
+				addWordTopic(w, t);
+		}
+		else
+		{
+			if(doccounts[t] == 0)
+				removeDocTopic(t);
+			if(nwt == 0)
+				removeWordTopic(w, t);
+		}
+	}
+
+	/**
+	 * Sample a topic for word w in document d from the three buckets
+	 *
+	 * @param w
+	 * @param d
+	 * @return
+	 */
+	private int sparseSample(int w, int d)
+	{
+		// Word bucket
+		int[] wt = wordtopics[w];
+		int nnz = wordnnz[w];
+		double qsum = 0;
+		for(int k = 0; k < nnz; k++)
+		{
+			int t = wt[k];
+			qbuf[k] = s.nw.get(w, t) * coef[t];
+			qsum += qbuf[k];
+		}
+
+		double u = p.rng.nextDouble() * (ssum + rsum + qsum);
+
+		if(u < qsum)
+		{
+			// Word bucket
+			int k = 0;
+			while(k < nnz - 1 && u >= qbuf[k])
+			{
+				u -= qbuf[k];
+				k++;
+			}
+			return wt[k];
+		}
+		u -= qsum;
+
+		if(u < rsum && docnnz > 0)
+		{
+			// Document bucket
+			int k = 0;
+			int t = doctopics[k];
+			double val = beta[t] * doccounts[t] / den[t];
+			while(k < docnnz - 1 && u >= val)
+			{
+				u -= val;
+				k++;
+				t = doctopics[k];
+				val = beta[t] * doccounts[t] / den[t];
+			}
+			return t;
+		}
+		u -= rsum;
+
+		// Smoothing bucket (rarely reached)
+		int t = 0;
+		double val = p.alpha[t] * beta[t] / den[t];
+		while(t < T - 1 && u >= val)
+		{
+			u -= val;
+			t++;
+			val = p.alpha[t] * beta[t] / den[t];
+		}
+		return t;
+	}
+
+	/**
+	 * Fall back to dense sampling for positions with logic weights
+	 *
+	 * @param w
+	 * @param d
+	 * @param lw
+	 * @param i Corpus position
+	 * @return
+	 */
+	private int denseSample(int w, int d, LogicWeights lw, int i)
+	{
+		double normsum = 0;
+		for(int j = 0; j < T; j++)
+		{
+			double num1 = s.nw.get(w, j) + beta[j];
+			double num2 = doccounts[j] + p.alpha[j];
+			tmp[j] = (num1 / den[j]) * num2;
+			normsum += tmp[j];
+		}
+		normsum = lw.applyFactors(i, tmp, normsum);
+		return MiscUtil.multSample(p.rng, tmp, normsum);
+	}
+
+	private void addDocTopic(int t)
+	{
+		docpos[t] = docnnz;
+		doctopics[docnnz++] = t;
+	}
+
+	private void removeDocTopic(int t)
+	{
+		// Swap last entry into the vacated slot
+		int k = docpos[t];
+		int last = doctopics[--docnnz];
+		doctopics[k] = last;
+		docpos[last] = k;
+		docpos[t] = -1;
+	}
+
+	private void addWordTopic(int w, int t)
+	{
+		if(wordnnz[w] == wordtopics[w].length)
+		{
+			int[] grown = new int[Math.min(2 * wordtopics[w].length, T)];
+			System.arraycopy(wordtopics[w], 0, grown, 0, wordnnz[w]);
+			wordtopics[w] = grown;
+		}
+		wordtopics[w][wordnnz[w]++] = t;
+	}
+
+	private void removeWordTopic(int w, int t)
+	{
+		int[] wt = wordtopics[w];
+		for(int k = 0; k < wordnnz[w]; k++)
+			if(wt[k] == t)
+			{
+				wt[k] = wt[--wordnnz[w]];
+				return;
+			}
+	}
+}
@@ -0,0 +1,104 @@
+package logiclda.infer;
+
+import logiclda.Corpus;
+import logiclda.EvalLDA;
+import logiclda.LDAParameters;
+import logiclda.LogicLDA;
+
+/**
+ * Time-to-objective of the Mirror Descent step size policies
+ *
+ * Usage: StepSizeBench basefn numsamp numinner randseed [maxouter]
+ * (default 8)
+ *
+ * Starts every run from the same standard LDA sample (numsamp Gibbs
+ * samples) and random seed (randseed), and for each policy runs 
+ * LogicLDA with 1, 2, 4, ... maxouter outer loops of numinner steps, 
+ * reporting time and objective
+ *
+ * obj = LDA log-likelihood + satisfied logic weight
+ *
+ * of the argmax z.  Then reports, for each policy, the first time
+ * at which it reached the best objective of the default (decaying)
+ * schedule.  Extra name=value options (InferOptions) may follow.
+ */
+public class StepSizeBench {
+
+	public static void main(String[] args) throws Exception
+	{
+		String basefn = args[0];
+		int numsamp = Integer.parseInt(args[1]);
+		int numinner = Integer.parseInt(args[2]);
+		int randseed = Integer.parseInt(args[3]);
+		int maxouter = (args.length > 4) ? Integer.parseInt(args[4]) : 8;
+
+		Corpus c = new Corpus(basefn);
+		LDAParameters p0 = new LDAParameters(basefn, randseed);
+		p0.opts.parse(args, 5);
+		DiscreteSample s = CollapsedGibbs.doGibbs(c, p0, numsamp);
+
+		StepSizeType[] types = StepSizeType.values();
+		int numruns = 1;
+		while((1 << numruns) <= maxouter)
+			numruns++;
+		double[][] secs = new double[types.length][numruns];
+		double[][] obj = new double[types.length][numruns];
+
+		for(int k = 0; k < types.length; k++)
+		{
+			for(int r = 0; r < numruns; r++)
+			{
+				// Fresh parameters and rules, so every run draws the
+				// same random numbers
+				LDAParameters p = new LDAParameters(basefn, randseed);
+				p.opts.parse(args, 5);
+				p.opts.stepsize = types[k];
+				MirrorDescent rs = LogicLDA.constructRuleSet(basefn, c,
+						p.T, randseed, true);
+
+				long t0 = System.nanoTime();
+				RelaxedSample relax = LogicLDA.runLogicLDA(c, p, rs, s,
+						1 << r, numinner);
+				secs[k][r] = (System.nanoTime() - t0) / 1e9;
+
+				int[] z = relax.getZ();
+				DiscreteSample zs = new DiscreteSample(c.N, p.T, p.W, c.D,
+						z, c, p.opts);
+				obj[k][r] = EvalLDA.ldaLoglike(zs, p) + rs.satWeight(z);
+			}
+		}
+
+		System.out.println();
+		for(int k = 0; k < types.length; k++)
+			for(int r = 0; r < numruns; r++)
+				System.out.println(String.format("%-9s %4d outer  %8.2f sec" +
+						"  objective %.1f", types[k].toString(), 1 << r,
+						secs[k][r], obj[k][r]));
+
+		// Target: best objective of the default schedule
+		double target = Double.NEGATIVE_INFINITY;
+		for(int r = 0; r < numruns; r++)
+			target = Math.max(target, obj[0][r]);
+		System.out.println(String.format("Time to objective %.1f:", target));
+		for(int k = 0; k < types.length; k++)
+		{
+			int r = 0;
+			while(r < numruns && obj[k][r] < target)
+				r++;
+			if(r < numruns)
+				System.out.println(String.format("%-9s %8.2f sec (%d outer)",
+						types[k].toString(), secs[k][r], 1 << r));
+			else
+				System.out.println(String.format("%-9s not reached " +
+						"(best %.1f)", types[k].toString(), max(obj[k])));
+		}
+	}
+
+	private static double max(double[] x)
+	{
+		double m = Double.NEGATIVE_INFINITY;
+		for(double v : x)
+			m = Math.max(m, v);
+		return m;
+	}
+}
@@ -0,0 +1,70 @@
+package logiclda.infer;
+
+import logiclda.InferOptions;
+
+/**
+ * Step size of each Mirror Descent z-entry update, with 
+ * interchangeable implementations selected once at startup 
+ * (InferOptions.stepsize)
+ * 
+ * Adaptive policies keep per-position state, which concurrent (Hogwild) 
+ * steps update under the lock of the position's z-entry (see 
+ * RelaxedSample.emdaStepConcurrent).
+ */
+public abstract class StepSizePolicy 
+{
+	/**
+	 * New policy of the type selected in opts
+	 * 
+	 * @param opts
+	 * @param N Corpus length
+	 * @param stepa
+	 * @param stepb Schedule stepa / sqrt(stepb + n) (adaptive policies 
+	 * use its initial value stepa / sqrt(stepb) as base step size)
+	 * @return
+	 */
+	public static StepSizePolicy create(InferOptions opts, int N, 
+			double stepa, double stepb)
+	{
+		return create(opts.stepsize, N, stepa, stepb);
+	}
+	
+	public static StepSizePolicy create(StepSizeType st, int N, 
+			double stepa, double stepb)
+	{
+		switch(st)
+		{
+		case ADAGRAD:
+			return new AdaGradStepSize(N, stepa / Math.sqrt(stepb));
+		case RMS:
+			return new RMSStepSize(N, stepa / Math.sqrt(stepb));
+		default:
+			return new DecayingStepSize(stepa, stepb);
+		}
+	}
+	
+	/**
+	 * Step size for entry gi of a gradient (called once per update of 
+	 * that entry)
+	 * 
+	 * @param n Step number within the current outer loop
+	 * @param grad
+	 * @param gi
+	 * @return
+	 */
+	public abstract double stepSize(long n, Gradient grad, int gi);
+	
+	/**
+	 * Squared norm of entry gi of a gradient
+	 */
+	protected static double sqNorm(Gradient grad, int gi)
+	{
+		double[] vals = grad.values[gi];
+		int nnz = (grad.nnz[gi] == Gradient.DENSE) ? 
+				grad.numTopics() : grad.nnz[gi];
+		double sq = 0;
+		for(int k = 0; k < nnz; k++)
+			sq += vals[k] * vals[k];
+		return sq;
+	}
+}
@@ -0,0 +1,23 @@
+package logiclda.infer;
+
+/**
+ * Mirror descent step size policies (StepSizePolicy)
+ */
+public enum StepSizeType 
+{
+	DECAYING("decaying"), // global stepa / sqrt(stepb + n) (DecayingStepSize)
+	ADAGRAD("adagrad"), // per-position AdaGrad (AdaGradStepSize)
+	RMS("rms"); // per-position RMSProp (RMSStepSize)
+	
+	private final String policyName;
+	
+	StepSizeType(String name)
+	{
+		this.policyName = name;		
+	}
+		
+	public boolean matchesName(String str)
+	{
+		return this.policyName.equalsIgnoreCase(str);
+	}
+}
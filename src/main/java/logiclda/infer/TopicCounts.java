@@ -0,0 +1,46 @@
+package logiclda.infer;
+
+/**
+ * Topic count storage used by DiscreteSample, one row per word (nw)
+ * or per document (nd), one column per topic
+ */
+public interface TopicCounts 
+{
+	/**
+	 * Count of topic t in row r
+	 */
+	public int get(int r, int t);
+	
+	/**
+	 * Add delta to the count of topic t in row r
+	 */
+	public void add(int r, int t, int delta);
+	
+	/**
+	 * Write the topics with non-zero count in row r (ascending) 
+	 * and their counts (if counts is non-null) into the given buffers
+	 * 
+	 * @return the number of non-zero topics
+	 */
+	public int nonZeros(int r, int[] topics, int[] counts);
+	
+	/**
+	 * Write all T counts of row r into buf (zeros included)
+	 * 
+	 * @return buf
+	 */
+	public int[] getRow(int r, int[] buf);
+	
+	public int numRows();
+	public int numTopics();
+	
+	/**
+	 * Overwrite all counts with those of other (same dimensions)
+	 */
+	public void copyFrom(TopicCounts other);
+	
+	/**
+	 * New storage of the same type and dimensions, holding the same counts
+	 */
+	public TopicCounts copy();
+}
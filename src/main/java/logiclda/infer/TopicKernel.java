@@ -0,0 +1,164 @@
+package logiclda.infer;
+
+import logiclda.InferOptions;
+import logiclda.RandomStream;
+
+/**
+ * Per-topic inner loops shared by the dense samplers and mirror descent,
+ * with interchangeable implementations selected once at startup 
+ * (InferOptions.kernel)
+ * 
+ * A kernel may keep per-token state between weights() and sample(), 
+ * so each sampling thread needs its own instance.
+ */
+public abstract class TopicKernel 
+{
+	protected int T;
+	
+	protected TopicKernel(int T)
+	{
+		this.T = T;
+	}
+	
+	/**
+	 * New kernel of the type selected in opts
+	 * 
+	 * @param opts
+	 * @param T Number of topics
+	 * @return
+	 */
+	public static TopicKernel create(InferOptions opts, int T)
+	{
+		return create(opts.kernel, T);
+	}
+	
+	public static TopicKernel create(KernelType kt, int T)
+	{
+		switch(kt)
+		{
+		case BLOCKED:
+			return new BlockedKernel(T);
+		default:
+			return new ScalarKernel(T);
+		}
+	}
+	
+	/**
+	 * Un-normalized collapsed Gibbs topic weights for a single token
+	 * 
+	 * vals[t] = (nw[t] + beta[t]) / (colsums[t] + betasums[t]) * (nd[t] + alpha[t])
+	 * 
+	 * @param nw Word-topic counts of the token's word
+	 * @param nd Doc-topic counts of the token's document
+	 * @param colsums Topic totals
+	 * @param beta Beta of the token's word for each topic
+	 * @param betasums
+	 * @param alpha
+	 * @param vals Output weights
+	 * @return Sum of vals
+	 */
+	public abstract double weights(int[] nw, int[] nd, long[] colsums, 
+			double[] beta, double[] betasums, double[] alpha, double[] vals);
+	
+	/**
+	 * Multiply weights from the last weights() call by the logic factors 
+	 * of position i (see LogicWeights.applyFactors)
+	 * 
+	 * @return New sum of vals
+	 */
+	public abstract double applyFactors(LogicWeights lw, int i, 
+			double[] vals, double normsum);
+	
+	/**
+	 * Draw a topic in proportion to the weights from the last 
+	 * weights() (and applyFactors()) call
+	 * 
+	 * @param rng
+	 * @param vals
+	 * @param normsum
+	 * @return
+	 */
+	public abstract int sample(RandomStream rng, double[] vals, double normsum);
+	
+	/**
+	 * z[t] *= exp(stepsize * grad[t])
+	 */
+	public abstract void expStep(double[] z, double[] grad, double stepsize);
+	
+	/**
+	 * Divide x by its sum
+	 * 
+	 * @return The sum
+	 */
+	public abstract double normalize(double[] x);
+	
+	/**
+	 * dst[t] += src[t]
+	 */
+	public abstract void addTo(double[] dst, double[] src);
+	
+	/**
+	 * Sum of x
+	 */
+	public abstract double sum(double[] x);
+	
+	/**
+	 * z[t] = src[t] * scale, adding the change in z[t] to nw[t] and nd[t]
+	 * (src may be z itself)
+	 */
+	public abstract void rescale(double[] z, double[] src, double scale, 
+			double[] nw, double[] nd);
+	
+	/**
+	 * Entropic Mirror Descent step on a (normalized) z-row with a dense 
+	 * gradient, moving the change in z into the expected counts nw/nd
+	 * 
+	 * z[t] ~ z[t] * exp(stepsize * grad[t])
+	 * 
+	 * @param z
+	 * @param grad
+	 * @param stepsize
+	 * @param buf Scratch space, length at least T
+	 * @param nw Expected counts of the word of z
+	 * @param nd Expected counts of the document of z
+	 */
+	public final void emdaDense(double[] z, double[] grad, double stepsize, 
+			double[] buf, double[] nw, double[] nd)
+	{
+		System.arraycopy(z, 0, buf, 0, T);
+		expStep(buf, grad, stepsize);
+		double normsum = sum(buf);
+		assert(normsum > 0);
+		rescale(z, buf, 1 / normsum, nw, nd);
+	}
+	
+	/**
+	 * Entropic Mirror Descent step on a (normalized) z-row with a 
+	 * gradient that is zero except for nnz topics, moving the change 
+	 * in z into the expected counts nw/nd
+	 * 
+	 * Only the nonzero entries are exponentiated.  The new row is built 
+	 * in buf and summed from its (non-negative) entries, so the sum does 
+	 * not cancel when a step removes almost all of the mass, and each 
+	 * entry of z is then written once, already normalized.
+	 * 
+	 * @param z
+	 * @param topics Topic of each nonzero entry (each at most once)
+	 * @param grad Gradient of each nonzero entry
+	 * @param nnz
+	 * @param stepsize
+	 * @param buf Scratch space, length at least T
+	 * @param nw Expected counts of the word of z
+	 * @param nd Expected counts of the document of z
+	 */
+	public final void emdaSparse(double[] z, int[] topics, double[] grad,
+			int nnz, double stepsize, double[] buf, double[] nw, double[] nd)
+	{
+		System.arraycopy(z, 0, buf, 0, T);
+		for(int k = 0; k < nnz; k++)
+			buf[topics[k]] *= Math.exp(stepsize * grad[k]);
+		double normsum = sum(buf);
+		assert(normsum > 0);
+		rescale(z, buf, 1 / normsum, nw, nd);
+	}
+}
@@ -6,10 +6,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Random;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Vector;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.infer.Gradient;
 import logiclda.infer.RelaxedSample;
@@ -28,8 +29,6 @@ public class CLRule implements LogicRule, GroundableRule
 	private ArrayList<Integer> idxA;
 	private ArrayList<Integer> idxB;
 	
-	private int[] indices;
-	private double[][] gradient;
 	private int T;
 
 	// below members are only used if rule is grounded as GroundableRule
@@ -56,8 +55,6 @@ public class CLRule implements LogicRule, GroundableRule
 		// Init other members
 		// (will be set by applyEvidence)
 		//
-		this.indices = null;
-		this.gradient = null;
 		this.idxA = null;
 		this.idxB = null;
 		
@@ -99,14 +96,16 @@ public class CLRule implements LogicRule, GroundableRule
 	/**
 	 * Sample a random rule grounding
 	 */
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
 	{
 		evidenceCheck("randomGradient()");
 		// Sample a word A idx and a word B idx
 		int ai = this.idxA.get(rng.nextInt(this.idxA.size()));
 		int bi = this.idxB.get(rng.nextInt(this.idxB.size()));		
-		indices[0] = ai;
-		indices[1] = bi;
+		grad.clear();
+		double[] grada = grad.addDense(ai);
+		double[] gradb = grad.addDense(bi);
 		
 		// CL logic clause polynomial is 
 		// 1 - (zi0*zj0 + zi1*zj1 + ... + zi(T-1)*zj(T-1))
@@ -114,11 +113,18 @@ public class CLRule implements LogicRule, GroundableRule
 		for(int ti = 0; ti < this.T; ti++)
 		{		
 			// Construct the gradient
-			gradient[0][ti] = -1 * stepWeight * relax.zrelax[bi][ti];
-			gradient[1][ti] = -1 * stepWeight * relax.zrelax[ai][ti];
+			grada[ti] = -1 * stepWeight * relax.zrelax[bi][ti];
+			gradb[ti] = -1 * stepWeight * relax.zrelax[ai][ti];
 		}
-		
-		return new Gradient(gradient, indices);		
+	}
+
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		for(int i : idxA)
+			indices.set(i);
+		for(int i : idxB)
+			indices.set(i);
 	}
 
 	/**
@@ -139,8 +145,6 @@ public class CLRule implements LogicRule, GroundableRule
 		
 		// Init other fields
 		this.T = T;
-		this.indices = new int[2];
-		this.gradient = new double[2][T];		
 	}
 
 	/**
@@ -281,6 +285,28 @@ public class CLRule implements LogicRule, GroundableRule
 		return satweight;
 	}
 
+	public void evalAllAssign(int[] z, int idx, double[] weights)
+	{
+		groundCheck("evalAllAssign()");
+		
+		if(!this.invIndex.containsKey(idx))
+			return;
+		
+		// Each grounding is satisfied unless z[idx] matches its partner
+		double w = this.sampWeight * this.stepWeight;
+		int numsat = 0;
+		for(Grounding g : this.invIndex.get(idx))
+		{
+			int other = (g.get(0) == idx) ? g.get(1) : g.get(0);
+			if(other == idx)
+				continue;
+			numsat++;
+			weights[z[other]] -= w;
+		}
+		for(int t = 0; t < weights.length; t++)
+			weights[t] += numsat * w;
+	}
+
 	public Map<Integer, Set<Grounding>> getInvIndex()
 	{
 		groundCheck("getInvIndex()");
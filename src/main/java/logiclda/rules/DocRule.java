@@ -6,15 +6,18 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.SideInfoType;
 import logiclda.infer.Gradient;
+import logiclda.infer.LogicWeights;
 import logiclda.infer.RelaxedSample;
 
 public class DocRule implements IndependentRule {
@@ -26,8 +29,9 @@ public class DocRule implements IndependentRule {
 	private double sampWeight;
 	private double stepWeight;
 	
-	private int[] indices;
 	private double[][] gradient;
+	// Topics with nonzero gradient (ascending)
+	private int[] gradtopics;
 	
 	// below members are only used if rule is grounded as GroundableRule
 	private Map<Integer, Set<Grounding>> invIndex;
@@ -62,7 +66,6 @@ public class DocRule implements IndependentRule {
 			hashSeedTopics.add(zi);		
 
 		// Init groundings to null (will be set later by applyEvidence)
-		this.indices = new int[1];
 		this.groundings = null;			
 		
 		// Init yet other members
@@ -101,7 +104,13 @@ public class DocRule implements IndependentRule {
 			if(hashSeedTopics.contains(t))		
 				gradient[0][t] = stepWeight;
 			else
-				gradient[0][t] = 0;	
+				gradient[0][t] = 0;
+		gradtopics = new int[hashSeedTopics.size()];
+		int k = 0;
+		for(int t = 0; t < T; t++)
+			if(gradient[0][t] != 0)
+				gradtopics[k++] = t;
+		gradtopics = Arrays.copyOf(gradtopics, k);
 	}
 	
 	/**
@@ -122,21 +131,14 @@ public class DocRule implements IndependentRule {
 	// Methods below should only be called after applyEvidence()
 	//	
 	
-	public double[][] toZLabel(int N, int T)
+	public void addZLabel(LogicWeights.Builder zl, int T)
 	{
-		evidenceCheck("toZLabel()");
+		evidenceCheck("addZLabel()");
 
-		// entries *not* associated with weights will be null
-		double[][] retval = new double[N][];
-		
 		// Populate z-label weights
 		for(int i : groundings)		
-		{			
-			retval[i] = new double[T];
 			for(int t = 0; t < T; t++)			
-				retval[i][t] = gradient[0][t] * sampWeight;
-		}
-		return retval;
+				zl.add(i, t, gradient[0][t] * sampWeight);
 	}
 	
 	@Override
@@ -156,17 +158,29 @@ public class DocRule implements IndependentRule {
 	}
 
 	@Override
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
 	{
 		evidenceCheck("randomGradient");
 
 		// Sample a random grounding
-		indices[0] = this.groundings[rng.nextInt(this.groundings.length)];		
+		int i = this.groundings[rng.nextInt(this.groundings.length)];		
 		
-		// Return random gradient
-		return new Gradient(gradient, indices);
+		// Fill in gradient (nonzero topics only)
+		grad.clear();
+		int k = grad.addSparse(i);
+		for(int t : gradtopics)
+			grad.set(k, t, gradient[0][t]);
 	}	
 
+	@Override
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		for(int i : groundings)
+			indices.set(i);
+	}
+
 	@Override
 	public long numGroundings() 
 	{
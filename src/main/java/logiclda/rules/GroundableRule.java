@@ -36,6 +36,17 @@ public interface GroundableRule extends LogicRule
 	 * @return
 	 */
 	public double evalAssign(int[] z, int idx);
+	
+	/**
+	 * Evaluate the satisfied weight wrt a single idx for every possible 
+	 * value of z[idx] at once (z[idx] itself is ignored), adding the 
+	 * weight for z[idx] = t to weights[t] 
+	 * 
+	 * @param z
+	 * @param idx
+	 * @param weights T-vector to be added to
+	 */
+	public void evalAllAssign(int[] z, int idx, double[] weights);
 
 	/**
 	 * The inverted index maps corpus indices to affected groundings
@@ -4,6 +4,8 @@ package logiclda.rules;
 import java.util.Map;
 import java.util.ArrayList;
 
+import logiclda.infer.LogicWeights;
+
 /**
  * Interface for a LogicRule which can easily be grounded/propositionalized
  * because it does not rely on more than one latent z value
@@ -17,14 +19,15 @@ public interface IndependentRule extends LogicRule
 {
 	
 	/**
-	 * After calling applyEvidence, this returns a 2D array mapping each 
-	 * corpus idx -> logic weights for each potential z-value [w1, ..., wT]
+	 * After calling applyEvidence, this adds the logic weights  
+	 * for each potential z-value of each affected corpus idx 
+	 * (zero weights may be omitted)
 	 *    
-	 * This can then easily be consulted when doing Logic Collapsed Gibbs, etc
+	 * These can then easily be consulted when doing Logic Collapsed Gibbs, etc
 	 * 
+	 * @param zl Accumulates weights for all IndependentRule
 	 * @param T
-	 * @return
 	 */
-	public double[][] toZLabel(int N, int T);	
+	public void addZLabel(LogicWeights.Builder zl, int T);	
 	
 }
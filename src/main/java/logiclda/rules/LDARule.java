@@ -1,8 +1,9 @@
 package logiclda.rules;
 
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.Random;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.infer.Gradient;
 import logiclda.infer.RelaxedSample;
@@ -12,12 +13,42 @@ public class LDARule implements LogicRule {
 	private double ruleWeight;
 	private int N;
 	private Corpus c;
+	// Corpus indices sampled by randomGradient (null for all)
+	private int[] positions;
 	
 	public LDARule(Corpus c, double ruleWeight)
 	{
 		this.c = c;
 		this.ruleWeight = ruleWeight;
 		this.N = c.N;
+		this.positions = null;
+	}
+	
+	/**
+	 * Only sample gradients at the given corpus indices (eg, the rows a 
+	 * hybrid RelaxedSample stores, steps on the others being ignored)
+	 * 
+	 * The sampling weight shrinks with the number of indices, so each 
+	 * of them is still stepped on as often, relative to the other rules, 
+	 * as when sampling all N.
+	 * 
+	 * @param indices
+	 */
+	public void restrictTo(BitSet indices)
+	{
+		positions = new int[indices.cardinality()];
+		int k = 0;
+		for(int i = indices.nextSetBit(0); i >= 0; 
+				i = indices.nextSetBit(i + 1))
+			positions[k++] = i;
+	}
+	
+	/**
+	 * Number of corpus indices randomGradient samples from
+	 */
+	private int numPositions()
+	{
+		return (positions == null) ? N : positions.length;
 	}
 	
 	public double getRuleWeight()
@@ -27,7 +58,7 @@ public class LDARule implements LogicRule {
 	
 	public double getTotalSamplingWeight() 
 	{
-		return N * ruleWeight;
+		return numPositions() * ruleWeight;
 	}
 	
 	public long numGroundings()
@@ -37,30 +68,44 @@ public class LDARule implements LogicRule {
 
 	public String toString() 
 	{
+		if(positions != null)
+			return String.format("LDA pseudorule (corpus length = %d, " +
+					"%d positions sampled)\n", N, positions.length);
 		return String.format("LDA pseudorule (corpus length = %d)\n", N);
 	}
 
 	/**
 	 * Calculate LDA gradient for a given index i
 	 * @param i 
-	 * @return
+	 * @param gradient T-vector to fill in
+	 * @return gradient
 	 */
-	public double[][] ldaGradient(Corpus c, double[][] phi, double[][] theta,
-			int i)
+	public double[] ldaGradient(Corpus c, double[][] phi, double[][] theta,
+			int i, double[] gradient)
 	{
 		int T = phi.length;
-		double[][] gradient = new double[1][T];
 		for(int t = 0; t < T; t++)
-			gradient[0][t] = phi[t][c.w[i]] * theta[c.d[i]][t];
+			gradient[t] = phi[t][c.w[i]] * theta[c.d[i]][t];
 		return gradient;
 	}
 	
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
+	{
+		int i = rng.nextInt(numPositions());
+		if(positions != null)
+			i = positions[i];
+		grad.clear();
+		ldaGradient(c, relax.phi, relax.theta, i, grad.addDense(i));
+	}
+
+	/**
+	 * None: the LDA gradient depends on phi/theta only, and the 
+	 * optimum of an entry it alone touches follows from phi/theta
+	 */
+	public void markIndices(BitSet indices)
 	{
-		int[] indices = new int[1];
-		indices[0] = rng.nextInt(N);								
-		return new Gradient(ldaGradient(c, relax.phi, relax.theta, indices[0]), 
-				indices); 
+		return;
 	}
 
 	public LogicRule[] docPartition(Corpus c, HashMap<Integer,Integer> docMap)
@@ -2,6 +2,7 @@ package logiclda.rules;
 
 import java.util.*;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.infer.Gradient;
 import logiclda.infer.RelaxedSample;
@@ -22,10 +23,23 @@ public interface LogicRule
 	public double getRuleWeight();	
 		 	
 	/**
-	 * Randomly sample a grounding and take a gradient step wrt to it
-	 * @param relax Relaxed z-array (will be updated in-place!)
+	 * Randomly sample a grounding and calculate the gradient wrt to it
+	 * (without allocating, beyond growing grad)
+	 * 
+	 * @param relax Relaxed z-array
+	 * @param rng
+	 * @param grad Overwritten with the gradient
+	 */
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad);
+	
+	/**
+	 * Mark every corpus index whose relaxed z can be read or updated 
+	 * by randomGradient (those a hybrid RelaxedSample must store)
+	 * 
+	 * @param indices
 	 */
-	public Gradient randomGradient(RelaxedSample relax, Random rng);
+	public void markIndices(BitSet indices);
 	
 	/**
 	 * 
@@ -4,12 +4,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Random;
-import java.util.Random;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.Vector;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.infer.Gradient;
 import logiclda.infer.RelaxedSample;
@@ -28,8 +28,6 @@ public class MLRule implements GroundableRule
 	private ArrayList<Integer> idxA;
 	private ArrayList<Integer> idxB;
 
-	private int[] indices;
-	private double[][] gradient;
 	private int T;
 
 	// below members are only used if rule is grounded as GroundableRule
@@ -56,8 +54,6 @@ public class MLRule implements GroundableRule
 		// Init other members
 		// (will be set by applyEvidence)
 		//
-		this.indices = null;
-		this.gradient = null;
 		this.idxA = null;
 		this.idxB = null;
 		
@@ -101,14 +97,16 @@ public class MLRule implements GroundableRule
 	/**
 	 * Sample a random rule grounding
 	 */
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
 	{
 		evidenceCheck("randomGradient()");
 		// Sample a word A idx and a word B idx
 		int ai = this.idxA.get(rng.nextInt(this.idxA.size()));
 		int bi = this.idxB.get(rng.nextInt(this.idxB.size()));		
-		indices[0] = ai;
-		indices[1] = bi;
+		grad.clear();
+		double[] grada = grad.addDense(ai);
+		double[] gradb = grad.addDense(bi);
 
 		// ML logic clause to corresponding polynomial is
 		// (zi0 => zj0) ^ (zi1 => zj1) 
@@ -123,10 +121,8 @@ public class MLRule implements GroundableRule
 			for(int ti = 0; ti < this.T; ti++)
 			{		
 				// Construct the gradient zit => zjt
-				this.gradient[0][ti] = 
-					stepWeight * (relax.zrelax[bi][ti] - 1);
-				this.gradient[1][ti] = 
-					stepWeight * relax.zrelax[ai][ti];
+				grada[ti] = stepWeight * (relax.zrelax[bi][ti] - 1);
+				gradb[ti] = stepWeight * relax.zrelax[ai][ti];
 			}
 		}
 		else
@@ -134,14 +130,19 @@ public class MLRule implements GroundableRule
 			for(int ti = 0; ti < this.T; ti++)
 			{		
 				// Construct the gradient for zit <= zjt
-				this.gradient[0][ti] = 
-					stepWeight * relax.zrelax[bi][ti];
-				this.gradient[1][ti] = 
-					stepWeight * (relax.zrelax[ai][ti] - 1);
+				grada[ti] = stepWeight * relax.zrelax[bi][ti];
+				gradb[ti] = stepWeight * (relax.zrelax[ai][ti] - 1);
 			}
 		}	
-				
-		return new Gradient(gradient, indices);		
+	}
+
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		for(int i : idxA)
+			indices.set(i);
+		for(int i : idxB)
+			indices.set(i);
 	}
 
 	/**
@@ -162,8 +163,6 @@ public class MLRule implements GroundableRule
 
 		// Init other fields
 		this.T = T;
-		this.indices = new int[2];
-		this.gradient = new double[2][T];		
 	}
 
 	/**
@@ -310,6 +309,29 @@ public class MLRule implements GroundableRule
 		return satweight;
 	}
 
+	public void evalAllAssign(int[] z, int idx, double[] weights)
+	{
+		groundCheck("evalAllAssign()");
+		
+		if(!this.invIndex.containsKey(idx))
+			return;
+		
+		// Each grounding is satisfied only if z[idx] matches its partner
+		double w = this.sampWeight * this.stepWeight;
+		int numself = 0;
+		for(Grounding g : this.invIndex.get(idx))
+		{
+			int other = (g.get(0) == idx) ? g.get(1) : g.get(0);
+			if(other == idx)
+				numself++;
+			else
+				weights[z[other]] += w;
+		}
+		if(numself > 0)
+			for(int t = 0; t < weights.length; t++)
+				weights[t] += numself * w;
+	}
+
 	public Map<Integer, Set<Grounding>> getInvIndex()
 	{
 		groundCheck("getInvIndex()");
@@ -2,8 +2,10 @@ package logiclda.rules;
 
 import java.util.*;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.infer.Gradient;
+import logiclda.infer.LogicWeights;
 import logiclda.infer.RelaxedSample;
  
 import org.ujmp.core.Matrix;
@@ -18,8 +20,9 @@ public class SeedRule implements IndependentRule, GroundableRule {
 	private double sampWeight;
 	private double stepWeight;
 	
-	private int[] indices;
 	private double[][] gradient;
+	// Topics with nonzero gradient (ascending)
+	private int[] gradtopics;
 	
 	// below members are only used if rule is grounded as GroundableRule
 	private Map<Integer, Set<Grounding>> invIndex;
@@ -65,7 +68,6 @@ public class SeedRule implements IndependentRule, GroundableRule {
 			hashSeedTopics.add(zi);		
 		
 		// Init groundings to null (will be set later by applyEvidence)
-		this.indices = new int[1];
 		this.groundings = null;
 		
 		// Init yet other members
@@ -80,20 +82,13 @@ public class SeedRule implements IndependentRule, GroundableRule {
 		return this.sampWeight * this.stepWeight;
 	}
 	
-	public double[][] toZLabel(int N, int T)
+	public void addZLabel(LogicWeights.Builder zl, int T)
 	{
-		evidenceCheck("toZLabel()");
+		evidenceCheck("addZLabel()");
 
-		 // entries *not* associated with weights will be null
-		double[][] retval = new double[N][];
-		
 		for(int i : groundings)	
-		{
-			retval[i] = new double[T];		
 			for(int t = 0; t < T; t++)			
-				retval[i][t] = gradient[0][t] * sampWeight;
-		}
-		return retval;
+				zl.add(i, t, gradient[0][t] * sampWeight);
 	}
 	
 	public String toString()
@@ -139,7 +134,13 @@ public class SeedRule implements IndependentRule, GroundableRule {
 			if(hashSeedTopics.contains(t))		
 				gradient[0][t] = stepWeight;
 			else
-				gradient[0][t] = 0;		
+				gradient[0][t] = 0;
+		gradtopics = new int[hashSeedTopics.size()];
+		int k = 0;
+		for(int t = 0; t < T; t++)
+			if(gradient[0][t] != 0)
+				gradtopics[k++] = t;
+		gradtopics = Arrays.copyOf(gradtopics, k);
 	}
 	
 	//
@@ -174,15 +175,26 @@ public class SeedRule implements IndependentRule, GroundableRule {
 		return this.groundings.length;
 	}
 	
-	public Gradient randomGradient(RelaxedSample relax, Random rng)
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad)
 	{
 		evidenceCheck("randomGradient()");
 		
 		// Sample a random grounding
-		indices[0] = this.groundings[rng.nextInt(this.groundings.length)];		
+		int i = this.groundings[rng.nextInt(this.groundings.length)];		
 		
-		// Return random gradient
-		return new Gradient(gradient, indices);		
+		// Fill in gradient (nonzero topics only)
+		grad.clear();
+		int k = grad.addSparse(i);
+		for(int t : gradtopics)
+			grad.set(k, t, gradient[0][t]);
+	}
+	
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		for(int i : groundings)
+			indices.set(i);
 	}
 	
 	/**
@@ -291,6 +303,21 @@ public class SeedRule implements IndependentRule, GroundableRule {
 		return satweight;
 	}
 
+	public void evalAllAssign(int[] z, int idx, double[] weights)
+	{
+		groundCheck("evalAllAssign()");
+		
+		if(!this.invIndex.containsKey(idx))
+			return;
+		
+		// Each grounding is satisfied if z[idx] is a seed topic
+		double w = this.sampWeight * this.stepWeight * 
+			this.invIndex.get(idx).size();
+		for(int t : this.hashSeedTopics)
+			if(t < weights.length)
+				weights[t] += w;
+	}
+
 	public Map<Integer, Set<Grounding>> getInvIndex()
 	{
 		groundCheck("getInvIndex()");
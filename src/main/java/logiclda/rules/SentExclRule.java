@@ -2,7 +2,9 @@ package logiclda.rules;
 
 import java.util.*;
 
+import logiclda.RandomStream;
 import logiclda.Corpus;
+import logiclda.AliasTable;
 import logiclda.MiscUtil;
 import logiclda.SideInfoType;
 import logiclda.infer.Gradient;
@@ -19,10 +21,12 @@ public class SentExclRule implements LogicRule {
 	// Maps sentence idx --> list of corpus idxs in that sentence
 	private HashMap<Integer, ArrayList<Integer>> sentences;
 	private int[] sentWeightIdx;
-	private double[] sentWeights; 
+	// Corpus idxs of each sentence (same order as sentWeightIdx)
+	private int[][] sentWords;
+	// Sentence sampling weights (O(1) grounding selection)
+	private AliasTable sentTable;
 	private long numGround;
 	
-	private int[] indices;
 	private int T;
 	
 	public SentExclRule(double sampWeight, double stepWeight,
@@ -45,7 +49,6 @@ public class SentExclRule implements LogicRule {
 		
 		// Init sentences to null (will be set later by applyEvidence)
 		//
-		this.indices = new int[2];		
 		this.sentences = null;
 	}
 	
@@ -92,7 +95,8 @@ public class SentExclRule implements LogicRule {
 		// cross-fold validation context
 		//  
 		sentWeightIdx = new int[sentences.keySet().size()];
-		sentWeights = new double[sentences.keySet().size()];
+		double[] sentWeights = new double[sentences.keySet().size()];
+		sentWords = new int[sentences.keySet().size()][];
 		numGround = 0;
 		
 		int sidx = 0;
@@ -102,11 +106,14 @@ public class SentExclRule implements LogicRule {
 			double current = Math.pow(entry.getValue().size(), 2);
 			
 			sentWeightIdx[sidx] = entry.getKey();
+			sentWords[sidx] = MiscUtil.intListUnbox(entry.getValue());
 			sentWeights[sidx] = current;
 			
 			numGround += current;
 			sidx += 1;
 		}				
+		sentTable = new AliasTable(sentWeights);
+		sentTable.trim();
 		
 		this.T = T;		
 	}
@@ -135,30 +142,40 @@ public class SentExclRule implements LogicRule {
 		return sampWeight * numGround;		
 	}
 
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
 	{	
 		evidenceCheck("randomGradient()");
 		
 		// Sample a random sentence
 		//
-		int si = this.sentWeightIdx[MiscUtil.multSample(rng, sentWeights, 
-				(double) numGround)];
+		int[] sentIdx = sentWords[sentTable.sample(rng)];
 		
 		// Sample a pair of corpus indices within this sentence
 		//
-		ArrayList<Integer> sentIdx = sentences.get(si);
-		int excluderIdx = sentIdx.get(rng.nextInt(sentIdx.size()));
-		int excludeeIdx = sentIdx.get(rng.nextInt(sentIdx.size()));
-		indices[0] = excluderIdx;
-		indices[1] = excludeeIdx;
+		int excluderIdx = sentIdx[rng.nextInt(sentIdx.length)];
+		int excludeeIdx = sentIdx[rng.nextInt(sentIdx.length)];
 		
-		// Construct gradient
+		// Construct gradient (a single nonzero topic for each index)
 		//
-		double[][] gradient = new double[2][this.T]; // default value is zero 
-		gradient[0][excluder] = -1 * stepWeight * relax.zrelax[excludeeIdx][excludee];
-		gradient[1][excludee] = -1 * stepWeight * relax.zrelax[excluderIdx][excluder];
-		
-		return new Gradient(gradient, indices);
+		grad.clear();
+		int k = grad.addSparse(excluderIdx);
+		grad.set(k, excluder, 
+				-1 * stepWeight * relax.zrelax[excludeeIdx][excludee]);
+		k = grad.addSparse(excludeeIdx);
+		grad.set(k, excludee, 
+				-1 * stepWeight * relax.zrelax[excluderIdx][excluder]);
+	}
+	
+	/**
+	 * Every word of every sentence
+	 */
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		for(int[] sentIdx : sentWords)
+			for(int i : sentIdx)
+				indices.set(i);
 	}
 	
 	public long numGroundings() 	
@@ -1,16 +1,17 @@
 package logiclda.rules;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 import java.util.Vector;
 
+import logiclda.MiscUtil;
+import logiclda.RandomStream;
 import logiclda.Corpus;
 import logiclda.SideInfoType;
 import logiclda.infer.Gradient;
 import logiclda.infer.RelaxedSample;
-import logiclda.MiscUtil;
 
 public class SentInclRule implements LogicRule 
 {
@@ -23,6 +24,8 @@ public class SentInclRule implements LogicRule
 	// Maps sentence idx --> list of corpus idxs in that sentence
 	private HashMap<Integer, ArrayList<Integer>> sentences;
 	private int[] sentidx;
+	// Corpus idxs of the sentence containing each corpus idx
+	private int[][] sentOf;
 	private long numGround;
 
 	public SentInclRule(double sampWeight, double stepWeight,
@@ -87,6 +90,15 @@ public class SentInclRule implements LogicRule
 			sentences.get(si).add(i);			
 		}
 		
+		// Unboxed sentence of each corpus idx (shared within a sentence)
+		HashMap<Integer, int[]> unboxed = new HashMap<Integer, int[]>();
+		for(Map.Entry<Integer, ArrayList<Integer>> entry : 
+			sentences.entrySet())
+			unboxed.put(entry.getKey(), MiscUtil.intListUnbox(entry.getValue()));
+		sentOf = new int[sentidx.length][];
+		for(int i = 0; i < sentidx.length; i++)
+			sentOf[i] = unboxed.get(sentidx[i]);
+		
 		// The number of groundings is simply equal to the corpus length
 		numGround = sentidx.length;		
 	}	
@@ -119,7 +131,17 @@ public class SentInclRule implements LogicRule
 		return numGround;
 	}
 
-	public Gradient randomGradient(RelaxedSample relax, Random rng) 
+	/**
+	 * Every corpus index (any can be sampled as the includee)
+	 */
+	public void markIndices(BitSet indices)
+	{
+		evidenceCheck("markIndices()");
+		indices.set(0, sentidx.length);
+	}
+
+	public void randomGradient(RelaxedSample relax, RandomStream rng,
+			Gradient grad) 
 	{
 		evidenceCheck("randomGradient()");
 		
@@ -129,55 +151,54 @@ public class SentInclRule implements LogicRule
 		
 		// Get the indices of all other words in that sentence
 		//
-		ArrayList<Integer> coSentence = sentences.get(sentidx[incleeIdx]);
-		
-		// Init gradients and indices
-		//
-		int S = coSentence.size();		
-		int T = relax.zrelax[0].length;
-		int[] indices = MiscUtil.intListUnbox(coSentence);
-		double[][] gradients = new double[S][T];
+		int[] coSentence = sentOf[incleeIdx];
 		
-		// Populate gradient
+		// Populate gradient (a single nonzero topic for each index)
 		//
 		// Poly: 1 - (1 - zjTr) (1 - zkTr) ... (ziTe)
 		// 
 		// (i is incleeIdx, Te is inclee topic, Tr is incler topic)
 		//
-		for(int i = 0; i < indices.length; i++)
+		int S = coSentence.length;		
+		grad.clear();
+		for(int i = 0; i < S; i++)
 		{
+			int idx = coSentence[i];
+			
 			// Which topic has a non-zero gradient for this index?
 			int t = -1;
-			if(indices[i] == incleeIdx)
+			double val;
+			if(idx == incleeIdx)
 			{
 				t = this.includee;
-				gradients[i][t] = -1 * stepWeight;
+				val = -1 * stepWeight;
 			}
 			else
 			{
 				t = this.includer;
-				gradients[i][t] = 1 * stepWeight;
+				val = 1 * stepWeight;
 			}
 						
 			// To calc gradient, sum entries for all entries OTHER THAN i			
-			for(int j = 0; j < indices.length; j++)
+			for(int j = 0; j < S; j++)
 			{
 				if(j == i)
 					continue;
 				
 				// Need to handle the includee index differently 
-				if(indices[j] == incleeIdx)
+				int jdx = coSentence[j];
+				if(jdx == incleeIdx)
 				{
-					gradients[i][t] *= relax.zrelax[indices[j]][includee];
+					val *= relax.zrelax[jdx][includee];
 				}
 				else
 				{
-					gradients[i][t] *= (1 - relax.zrelax[indices[j]][includer]);
+					val *= (1 - relax.zrelax[jdx][includer]);
 				}				
 			}
+			
+			grad.set(grad.addSparse(idx), t, val);
 		}
-		
-		return new Gradient(gradients, indices);
 	}
 	
 	public int numSat(int[] z) 